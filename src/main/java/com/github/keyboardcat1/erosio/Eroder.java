@@ -1,8 +1,6 @@
 package com.github.keyboardcat1.erosio;
 
-import org.kynosarges.tektosyne.geometry.GeoUtils;
 import org.kynosarges.tektosyne.geometry.PointD;
-import org.kynosarges.tektosyne.geometry.PolygonLocation;
 
 import java.util.*;
 import java.util.function.Function;
@@ -17,35 +15,67 @@ import java.util.stream.Collectors;
 public final class Eroder {
 
     /**
-     * Computes an eroded heightmap
+     * Computes an eroded heightmap, draining water through the boundary of the geometry, or through its initially
+     * lowest node if it has no boundary, i.e. if it is periodic
      *
      * @param settings        The parameters of the erosion algorithm
      * @param eroderGeometry The Voronoi tessellated and Delaunay triangulated area to erode
      * @return An eroded heightmap along with computational details
      */
     public static EroderResults erode(EroderSettings settings, EroderGeometry eroderGeometry) {
+        if (!eroderGeometry.boundary.isEmpty())
+            return erode(settings, eroderGeometry, eroderGeometry.boundary);
+        PointD lowest = eroderGeometry.graph.keySet().stream()
+                .min(Comparator.<PointD>comparingDouble(p -> settings.initialHeightLambda().apply(p))
+                        .thenComparingDouble(p -> p.x).thenComparingDouble(p -> p.y))
+                .orElseThrow();
+        return erode(settings, eroderGeometry, Set.of(lowest));
+    }
+
+    /**
+     * Computes an eroded heightmap, draining water through custom nodes
+     *
+     * @param settings        The parameters of the erosion algorithm
+     * @param eroderGeometry The Voronoi tessellated and Delaunay triangulated area to erode
+     * @param potentialDrains The nodes through which water can leave the domain, i.e. its boundary or coastlines
+     * @return An eroded heightmap along with computational details
+     */
+    public static EroderResults erode(EroderSettings settings, EroderGeometry eroderGeometry, Set<PointD> potentialDrains) {
+        return erode(settings, eroderGeometry, potentialDrains, Map.of());
+    }
+
+    /**
+     * Computes an eroded heightmap, draining water through custom nodes and holding others at fixed heights, e.g. the
+     * border shared with a neighboring area eroded beforehand
+     *
+     * @param settings        The parameters of the erosion algorithm
+     * @param eroderGeometry The Voronoi tessellated and Delaunay triangulated area to erode
+     * @param potentialDrains The nodes through which water can leave the domain, i.e. its boundary or coastlines
+     * @param fixedHeights    The heights at which nodes are held throughout erosion, each of them draining the water
+     *                        flowing into it
+     * @return An eroded heightmap along with computational details
+     */
+    public static EroderResults erode(EroderSettings settings, EroderGeometry eroderGeometry, Set<PointD> potentialDrains,
+                                      Map<PointD, Double> fixedHeights) {
         Map<PointD, Double> heightMap = new HashMap<>(eroderGeometry.graph.size());
         Map<PointD, Double> erosionRateMap = new HashMap<>(eroderGeometry.graph.size());
         for (PointD point : eroderGeometry.graph.keySet()) {
-            heightMap.put(point, settings.initialHeightLambda().apply(point));
+            Double fixedHeight = fixedHeights.get(point);
+            heightMap.put(point, fixedHeight != null ? fixedHeight : settings.initialHeightLambda().apply(point));
             erosionRateMap.put(point, settings.erosionRateLambda().apply(point));
         }
 
-        PointD[] convexHull = GeoUtils.convexHull(eroderGeometry.graph.keySet().toArray(new PointD[0]));
-        Set<PointD> potentialDrains = eroderGeometry.graph.keySet().stream()
-                .filter(node -> GeoUtils.pointInPolygon(node, convexHull) == PolygonLocation.VERTEX)
-                .collect(Collectors.toSet());
         boolean converged = false;
         StreamGraph streamGraph = null;
         Map<PointD, java.lang.Double> drainageMap = null;
         int i;
         for (i = 0; i < settings.maxIterations() && !converged; i++) {
-            streamGraph = buildInitialStreamGraph(eroderGeometry.graph, heightMap);
+            streamGraph = buildInitialStreamGraph(eroderGeometry.graph, heightMap, fixedHeights.keySet());
             Set<PointD> drains = new HashSet<>(streamGraph.roots);
-            drains.retainAll(potentialDrains);
+            drains.removeIf(root -> !potentialDrains.contains(root) && !fixedHeights.containsKey(root));
             delakefyStreamGraph(streamGraph, eroderGeometry.graph, heightMap, drains);
             drainageMap = getDrainageMap(streamGraph, eroderGeometry.areaMap);
-            Map<PointD, Double> newHeightMap = computeNewHeightMap(i, heightMap, drainageMap, erosionRateMap, streamGraph, settings, eroderGeometry.minDistance);
+            Map<PointD, Double> newHeightMap = computeNewHeightMap(i, heightMap, drainageMap, erosionRateMap, streamGraph, settings, eroderGeometry, fixedHeights);
             converged = true;
             for (PointD point : newHeightMap.keySet())
                 if (Math.abs(newHeightMap.get(point) - heightMap.get(point)) > settings.convergenceThreshold()) {
@@ -56,13 +86,16 @@ public final class Eroder {
         }
 
         assert streamGraph != null;
-        return new EroderResults(heightMap, getEroderEdges(streamGraph, drainageMap), eroderGeometry, converged ? i : -1);
+        return new EroderResults(heightMap, drainageMap, getEroderEdges(streamGraph, drainageMap), eroderGeometry, converged ? i : -1);
     }
 
 
-    private static StreamGraph buildInitialStreamGraph(Map<PointD, Set<PointD>> graph, Map<PointD, Double> heightMap) {
+    private static StreamGraph buildInitialStreamGraph(Map<PointD, Set<PointD>> graph, Map<PointD, Double> heightMap,
+                                                       Set<PointD> fixed) {
         Function<PointD, PointD> getLowestNeighbor = point -> {
             PointD lowest = point;
+            // fixed nodes are sinks, where the water flowing into them leaves the domain
+            if (fixed.contains(point)) return lowest;
             for (PointD neighbor : graph.get(point))
                 if (heightMap.get(neighbor) < heightMap.get(lowest))
                     lowest = neighbor;
@@ -154,7 +187,8 @@ public final class Eroder {
 
     private static Map<PointD, Double> computeNewHeightMap(int t, Map<PointD, Double> oldHeightMap,
                                                            Map<PointD, Double> drainageMap, Map<PointD, Double> erosionRateMap,
-                                                           StreamGraph streamGraph, EroderSettings settings, double minDistance) {
+                                                           StreamGraph streamGraph, EroderSettings settings, EroderGeometry eroderGeometry,
+                                                           Map<PointD, Double> fixedHeights) {
         final Map<PointD, Double> out = new HashMap<>(streamGraph.size());
         Queue<Map.Entry<PointD, PointD>> downstreamQueue = new ArrayDeque<>(
                 streamGraph.roots.stream().collect(Collectors.toMap(k -> k, v -> PointD.EMPTY)).entrySet()
@@ -165,14 +199,22 @@ public final class Eroder {
             PointD current = entry.getKey();
             PointD downstream = entry.getValue();
 
+            Double fixedHeight = fixedHeights.get(current);
+            if (fixedHeight != null) {
+                out.put(current, fixedHeight);
+                for (PointD neighbor : streamGraph.get(current))
+                    downstreamQueue.add(new AbstractMap.SimpleImmutableEntry<>(neighbor, current));
+                continue;
+            }
+
             double distance;
             double downstreamHeight;
             double oldHeight = oldHeightMap.get(current);
             if (downstream == PointD.EMPTY) {
-                distance = minDistance;
+                distance = eroderGeometry.minDistance;
                 downstreamHeight = oldHeight;
             } else {
-                distance = current.subtract(downstream).length();
+                distance = eroderGeometry.distance(current, downstream);
                 downstreamHeight = out.get(downstream);
             }
             double uplift =settings.upliftLambda().apply(current, t);
@@ -196,9 +238,10 @@ public final class Eroder {
 
     private static Set<EroderEdge> getEroderEdges(StreamGraph streamGraph, Map<PointD, Double> drainageMap) {
         Set<EroderEdge> out = new HashSet<>();
-        streamGraph.forEach((node, neighbors) -> {
-            for (PointD neighbor : neighbors)
-                out.add(new EroderEdge(node, neighbor, drainageMap.get(neighbor), drainageMap.get(node)));
+        // every node maps to the nodes upstream of it, whose water flows into it
+        streamGraph.forEach((node, upstream) -> {
+            for (PointD neighbor : upstream)
+                out.add(new EroderEdge(neighbor, node, drainageMap.get(neighbor), drainageMap.get(node)));
         });
         return out;
     }
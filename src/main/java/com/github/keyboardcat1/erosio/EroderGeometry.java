@@ -4,6 +4,7 @@ import org.kynosarges.tektosyne.geometry.PointD;
 import org.kynosarges.tektosyne.geometry.RectD;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -27,12 +28,18 @@ public abstract class EroderGeometry {
      * The base graph defining whether water can flow between nodes
      */
     public final Map<PointD, Set<PointD>> graph = new HashMap<>();
+    /**
+     * The nodes lying on the border of the domain, where water can leave it
+     */
+    public final Set<PointD> boundary = new HashSet<>();
 
     /**
      * The mapping from every node to the surface area of the region closest to it
      */
     protected final Map<PointD, Double> areaMap = new HashMap<>();
 
+    private volatile TriangleMesh mesh;
+
     /**
      * The geometry underlying a stream graph
      *
@@ -54,6 +61,42 @@ public abstract class EroderGeometry {
         return graph.size();
     }
 
+    /**
+     * The triangle mesh over the nodes of the graph, built on first use and shared by every caller
+     *
+     * @return The {@link TriangleMesh} of the geometry
+     */
+    public TriangleMesh mesh() {
+        TriangleMesh mesh = this.mesh;
+        if (mesh == null) synchronized (this) {
+            mesh = this.mesh;
+            if (mesh == null) this.mesh = mesh = new TriangleMesh(this);
+        }
+        return mesh;
+    }
+
+    /**
+     * The distance between two nodes across the domain
+     *
+     * @param a The first node
+     * @param b The second node
+     * @return The distance between both nodes
+     */
+    public double distance(PointD a, PointD b) {
+        return a.subtract(b).length();
+    }
+
+    /**
+     * Whether the edge between two nodes wraps around a periodic domain rather than crossing it
+     *
+     * @param a The first node
+     * @param b The second node
+     * @return true if the edge wraps around the domain
+     */
+    public boolean wraps(PointD a, PointD b) {
+        return false;
+    }
+
     /**
      * Converts a {@link RectD} to a polygon
      *
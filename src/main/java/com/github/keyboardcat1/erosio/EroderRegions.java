@@ -0,0 +1,313 @@
+package com.github.keyboardcat1.erosio;
+
+import com.github.keyboardcat1.erosio.interpolation.Interpolator;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * An unbounded heightmap eroded lazily, region by region <br/>
+ * The plane is split into square regions, each eroded on first request over its area extended by a margin.
+ * Regions are colored by the parities of their indices, and a region is eroded after its neighbors of lower color,
+ * the nodes of its margin lying within them being held at their heights as drains, so that rivers carry on across
+ * shared borders and every region erodes the same whatever the order of requests. Neighboring regions are blended
+ * over a band of half the margin on each side of their shared border, and the most recently used regions are kept
+ * in a size-bounded cache. <br/>
+ * Overlapping regions only share their nodes if the geometry is reproducible over sub-regions, i.e.
+ * {@link com.github.keyboardcat1.erosio.geometries.EroderGeometryJittered}.
+ */
+public class EroderRegions extends Interpolator implements AutoCloseable {
+    /**
+     * The parameters of the erosion algorithm
+     */
+    public final EroderSettings settings;
+    /**
+     * The side length of a region
+     */
+    public final double regionSize;
+    /**
+     * The distance by which each region is extended before being eroded
+     */
+    public final double margin;
+    /**
+     * The maximum number of regions kept in memory
+     */
+    public final int maxRegions;
+
+    private final Function<RectD, EroderGeometry> geometryFactory;
+    private final Function<EroderResults, Interpolator> interpolatorFactory;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<Long, CompletableFuture<Region>> regions;
+
+    /**
+     * An unbounded heightmap eroded lazily, region by region
+     *
+     * @param settings            The parameters of the erosion algorithm
+     * @param geometryFactory     A map from the rectangle to erode to its {@link EroderGeometry}
+     * @param interpolatorFactory A map from a region's {@link EroderResults} to its {@link Interpolator}
+     * @param regionSize          The side length of a region
+     * @param margin              The distance by which each region is extended before being eroded, at most regionSize
+     * @param maxRegions          The maximum number of regions kept in memory
+     */
+    public EroderRegions(EroderSettings settings, Function<RectD, EroderGeometry> geometryFactory,
+                         Function<EroderResults, Interpolator> interpolatorFactory,
+                         double regionSize, double margin, int maxRegions) {
+        if (margin < 0 || margin > regionSize)
+            throw new IllegalArgumentException("margin must lie between 0 and regionSize, got " + margin);
+        this.settings = settings;
+        this.geometryFactory = geometryFactory;
+        this.interpolatorFactory = interpolatorFactory;
+        this.regionSize = regionSize;
+        this.margin = margin;
+        this.maxRegions = maxRegions;
+        this.regions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CompletableFuture<Region>> eldest) {
+                return size() > EroderRegions.this.maxRegions;
+            }
+        };
+    }
+
+    @Override
+    public double interpolate(PointD point) {
+        return interpolate(point.x, point.y);
+    }
+
+    @Override
+    public double interpolate(double x, double y) {
+        double blend = margin / 2;
+        int minI = regionOf(x - blend), maxI = regionOf(x + blend);
+        int minJ = regionOf(y - blend), maxJ = regionOf(y + blend);
+        double numerator = 0.0D;
+        double denominator = 0.0D;
+        for (int i = minI; i <= maxI; i++) {
+            double weightX = weight(x, i);
+            if (weightX == 0) continue;
+            for (int j = minJ; j <= maxJ; j++) {
+                double weight = weightX * weight(y, j);
+                if (weight == 0) continue;
+                numerator += weight * region(i, j).join().interpolator().interpolate(x, y);
+                denominator += weight;
+            }
+        }
+        return numerator / denominator;
+    }
+
+    // the quotient rule on the blend, through the regions' own gradients and the derivatives of the blending weights
+    @Override
+    public double interpolateGradient(double x, double y, double[] gradient) {
+        double blend = margin / 2;
+        int minI = regionOf(x - blend), maxI = regionOf(x + blend);
+        int minJ = regionOf(y - blend), maxJ = regionOf(y + blend);
+        double[] regionGradient = new double[2];
+        double numerator = 0.0D, denominator = 0.0D;
+        double numeratorX = 0.0D, numeratorY = 0.0D, denominatorX = 0.0D, denominatorY = 0.0D;
+        for (int i = minI; i <= maxI; i++) {
+            double weightX = weight(x, i);
+            if (weightX == 0) continue;
+            double slopeX = slope(x, i);
+            for (int j = minJ; j <= maxJ; j++) {
+                double weightY = weight(y, j);
+                double weight = weightX * weightY;
+                if (weight == 0) continue;
+                double height = region(i, j).join().interpolator().interpolateGradient(x, y, regionGradient);
+                double derivativeX = slopeX * weightY, derivativeY = weightX * slope(y, j);
+                numerator += weight * height;
+                denominator += weight;
+                numeratorX += derivativeX * height + weight * regionGradient[0];
+                numeratorY += derivativeY * height + weight * regionGradient[1];
+                denominatorX += derivativeX;
+                denominatorY += derivativeY;
+            }
+        }
+        double height = numerator / denominator;
+        gradient[0] = (numeratorX - height * denominatorX) / denominator;
+        gradient[1] = (numeratorY - height * denominatorY) / denominator;
+        return height;
+    }
+
+    @Override
+    public void sampleGrid(RectD bounds, int width, int height, double[] out) {
+        regionsOverlapping(bounds).join();
+        super.sampleGrid(bounds, width, height, out);
+    }
+
+    @Override
+    public void sampleGrid(RectD bounds, int width, int height, float[] out) {
+        regionsOverlapping(bounds).join();
+        super.sampleGrid(bounds, width, height, out);
+    }
+
+    /**
+     * Interpolates the heights of a rectangle asynchronously on a virtual thread, with {@link #sampleGrid}
+     *
+     * @param bounds The rectangle to sample, sampled at pixel centers
+     * @param width  The number of samples on the x-axis
+     * @param height The number of samples on the y-axis
+     * @return The row-major interpolated heights, once every region they overlap has been eroded
+     */
+    public CompletableFuture<double[]> interpolateAsync(RectD bounds, int width, int height) {
+        return regionsOverlapping(bounds).thenApplyAsync(ignored -> {
+            double[] out = new double[width * height];
+            sampleGrid(bounds, width, height, out);
+            return out;
+        }, executor);
+    }
+
+    // blends the rows of every region overlapping the row, each sampled in one span as a grid of a single row
+    @Override
+    protected void sampleRow(double y, double fromX, double stepX, double[] out, int offset, int count) {
+        double blend = margin / 2;
+        double toX = fromX + (count - 1) * stepX;
+        double[] numerators = new double[count];
+        double[] denominators = new double[count];
+        double[] samples = new double[count];
+        for (int j = regionOf(y - blend); j <= regionOf(y + blend); j++) {
+            double weightY = weight(y, j);
+            if (weightY == 0) continue;
+            for (int i = regionOf(fromX - blend); i <= regionOf(toX + blend); i++) {
+                // the samples where the region's weight may be positive
+                int from = Math.max(0, (int) Math.floor((i * regionSize - blend - fromX) / stepX));
+                int to = Math.min(count, (int) Math.ceil(((i + 1) * regionSize + blend - fromX) / stepX) + 1);
+                if (from >= to) continue;
+                double spanX = fromX + (from - 0.5) * stepX;
+                region(i, j).join().interpolator().sampleGrid(new RectD(spanX, y - stepX / 2,
+                        spanX + (to - from) * stepX, y + stepX / 2), to - from, 1, samples);
+                for (int k = from; k < to; k++) {
+                    double weight = weightY * weight(fromX + k * stepX, i);
+                    if (weight == 0) continue;
+                    numerators[k] += weight * samples[k - from];
+                    denominators[k] += weight;
+                }
+            }
+        }
+        for (int k = 0; k < count; k++)
+            out[offset + k] = numerators[k] / denominators[k];
+    }
+
+    /**
+     * Finds the erosion results of a region, eroding it if necessary
+     *
+     * @param i The index of the region on the x-axis
+     * @param j The index of the region on the y-axis
+     * @return The {@link EroderResults} of the region extended by the margin
+     */
+    public CompletableFuture<EroderResults> regionResults(int i, int j) {
+        return region(i, j).thenApply(Region::results);
+    }
+
+    /**
+     * Computes the index of the region containing a coordinate, on either axis
+     *
+     * @param coordinate The coordinate
+     * @return The index of the region
+     */
+    public int regionOf(double coordinate) {
+        return (int) Math.floor(coordinate / regionSize);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private CompletableFuture<Region> region(int i, int j) {
+        long key = ((long) i << 32) | (j & 0xFFFFFFFFL);
+        CompletableFuture<Region> region;
+        synchronized (regions) {
+            region = regions.get(key);
+            if (region != null) return region;
+            region = CompletableFuture.supplyAsync(() -> erode(i, j), executor);
+            regions.put(key, region);
+        }
+        CompletableFuture<Region> failed = region;
+        region.whenComplete((r, e) -> {
+            if (e != null) synchronized (regions) {
+                regions.remove(key, failed);
+            }
+        });
+        return region;
+    }
+
+    // every region whose blending weight may be positive somewhere in the rectangle, eroded concurrently
+    private CompletableFuture<Void> regionsOverlapping(RectD bounds) {
+        double blend = margin / 2;
+        int minI = regionOf(bounds.min.x - blend), maxI = regionOf(bounds.max.x + blend);
+        int minJ = regionOf(bounds.min.y - blend), maxJ = regionOf(bounds.max.y + blend);
+        List<CompletableFuture<Region>> overlapping = new ArrayList<>();
+        for (int i = minI; i <= maxI; i++) for (int j = minJ; j <= maxJ; j++)
+            overlapping.add(region(i, j));
+        return CompletableFuture.allOf(overlapping.toArray(CompletableFuture[]::new));
+    }
+
+    private Region erode(int i, int j) {
+        RectD bounds = new RectD(i * regionSize - margin, j * regionSize - margin,
+                (i + 1) * regionSize + margin, (j + 1) * regionSize + margin);
+        EroderGeometry geometry = geometryFactory.apply(bounds);
+
+        // the neighbors of lower color, whose erosion the region's margin has to agree with
+        Region[] neighbors = new Region[9];
+        for (int di = -1; di <= 1; di++) for (int dj = -1; dj <= 1; dj++)
+            if (color(i + di, j + dj) < color(i, j))
+                neighbors[(dj + 1) * 3 + di + 1] = region(i + di, j + dj).join();
+
+        Map<PointD, Double> fixedHeights = new HashMap<>();
+        for (PointD node : geometry.graph.keySet()) {
+            int di = regionOf(node.x) - i, dj = regionOf(node.y) - j;
+            if (Math.abs(di) > 1 || Math.abs(dj) > 1) continue;
+            Region neighbor = neighbors[(dj + 1) * 3 + di + 1];
+            if (neighbor == null) continue;
+            // nodes shared with the neighbor keep its height, others are interpolated from it
+            Double height = neighbor.results().heightMap.get(node);
+            fixedHeights.put(node, height != null ? height : neighbor.interpolator().interpolate(node.x, node.y));
+        }
+
+        EroderResults results = fixedHeights.isEmpty() ? Eroder.erode(settings, geometry) :
+                Eroder.erode(settings, geometry, geometry.boundary, fixedHeights);
+        return new Region(results, interpolatorFactory.apply(results));
+    }
+
+    // neighboring regions always differ in color, and regions only wait on regions of lower color
+    private static int color(int i, int j) {
+        return (i & 1) | (j & 1) << 1;
+    }
+
+    // a partition of unity: smooth ramps of width margin centered on the region's borders
+    private double weight(double coordinate, int index) {
+        if (margin == 0) return regionOf(coordinate) == index ? 1 : 0;
+        double rising = (coordinate - index * regionSize) / margin + 0.5;
+        double falling = ((index + 1) * regionSize - coordinate) / margin + 0.5;
+        return smoothstep(rising) * smoothstep(falling);
+    }
+
+    // the derivative of the weight along the coordinate
+    private double slope(double coordinate, int index) {
+        if (margin == 0) return 0;
+        double rising = (coordinate - index * regionSize) / margin + 0.5;
+        double falling = ((index + 1) * regionSize - coordinate) / margin + 0.5;
+        return (smoothstepSlope(rising) * smoothstep(falling) - smoothstep(rising) * smoothstepSlope(falling)) / margin;
+    }
+
+    private static double smoothstepSlope(double t) {
+        if (t <= 0 || t >= 1) return 0;
+        return 6 * t * (1 - t);
+    }
+
+    private static double smoothstep(double t) {
+        if (t <= 0) return 0;
+        if (t >= 1) return 1;
+        return t * t * (3 - 2 * t);
+    }
+
+    private record Region(EroderResults results, Interpolator interpolator) {
+    }
+}
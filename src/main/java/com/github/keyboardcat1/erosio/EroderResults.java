@@ -14,6 +14,10 @@ public class EroderResults {
      * The mapping from each stream node to its height
      */
     public final Map<PointD, Double> heightMap;
+    /**
+     * The mapping from each stream node to the area it drains, i.e. the volume of water flowing through it
+     */
+    public final Map<PointD, Double> drainageMap;
     /**
      * The maximum height in the heightmap
      */
@@ -35,8 +39,14 @@ public class EroderResults {
      */
     public final int converged;
 
-    EroderResults(Map<PointD, Double> heightMap, Set<EroderEdge> eroderEdges, EroderGeometry eroderGeometry, int converged) {
+    private volatile double[] meshHeights;
+    private volatile double[] meshNormals;
+    private volatile double[] meshDrainage;
+
+    EroderResults(Map<PointD, Double> heightMap, Map<PointD, Double> drainageMap, Set<EroderEdge> eroderEdges,
+                  EroderGeometry eroderGeometry, int converged) {
         this.heightMap = heightMap;
+        this.drainageMap = drainageMap;
         this.eroderEdges = eroderEdges;
         this.eroderGeometry = eroderGeometry;
         this.converged = converged;
@@ -47,4 +57,48 @@ public class EroderResults {
         Optional<Double> min = heightMap.values().stream().min(Double::compareTo);
         this.minHeight = min.get();
     }
+
+    /**
+     * The height of every vertex of the geometry's {@link TriangleMesh}, computed on first use and not to be modified
+     *
+     * @return The height of every vertex of {@link EroderGeometry#mesh()}
+     */
+    public double[] meshHeights() {
+        double[] heights = meshHeights;
+        if (heights == null) synchronized (this) {
+            heights = meshHeights;
+            if (heights == null) meshHeights = heights = eroderGeometry.mesh().heights(heightMap);
+        }
+        return heights;
+    }
+
+    /**
+     * The unit normal of every vertex of the geometry's {@link TriangleMesh}, computed on first use and not to be
+     * modified
+     *
+     * @return The (x, y, z) components of the normal of every vertex of {@link EroderGeometry#mesh()}, flattened
+     */
+    public double[] meshNormals() {
+        double[] normals = meshNormals;
+        if (normals == null) synchronized (this) {
+            normals = meshNormals;
+            if (normals == null) meshNormals = normals = eroderGeometry.mesh().normals(meshHeights());
+        }
+        return normals;
+    }
+
+    /**
+     * The drained area of every vertex of the geometry's {@link TriangleMesh}, computed on first use and not to be
+     * modified
+     *
+     * @return The drained area of every vertex of {@link EroderGeometry#mesh()}
+     */
+    public double[] meshDrainage() {
+        double[] drainage = meshDrainage;
+        if (drainage == null) synchronized (this) {
+            drainage = meshDrainage;
+            if (drainage == null) meshDrainage = drainage = eroderGeometry.mesh().heights(drainageMap);
+        }
+        return drainage;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,380 @@
+package com.github.keyboardcat1.erosio;
+
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryToroidal;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * A compact, immutable triangle mesh over the nodes of an {@link EroderGeometry} <br/>
+ * The triangles are the bounded faces of the geometry's planar graph, found by walking the neighbors of every node
+ * in counter-clockwise order. The mesh of a {@link EroderGeometryToroidal} also holds the periodic images of the
+ * nodes lying within an edge of its period, with the edges wrapping around it unwrapped between them, so that the
+ * triangles overlapping the period cover it up to its edges. Vertices are ordered by row, then column, and
+ * everything is stored in flat arrays indexed by vertex or triangle.
+ */
+public final class TriangleMesh {
+    /**
+     * The node of every vertex, of which the vertex may be a periodic image
+     */
+    public final PointD[] vertices;
+    /**
+     * The X coordinate of every vertex
+     */
+    public final double[] xs;
+    /**
+     * The Y coordinate of every vertex
+     */
+    public final double[] ys;
+    /**
+     * The three vertices of every triangle in counter-clockwise order, flattened
+     */
+    public final int[] triangles;
+    /**
+     * The triangle across the edge from vertex k to vertex k + 1 of every triangle, -1 on the border, flattened
+     */
+    public final int[] adjacency;
+    /**
+     * The index in {@link #neighbors} of the first neighbor of every vertex, followed by the total neighbor count
+     */
+    public final int[] neighborStart;
+    /**
+     * The neighbors of every vertex in counter-clockwise order, vertex by vertex
+     */
+    public final int[] neighbors;
+    /**
+     * Whether every edge of the geometry's graph joins two vertices of the mesh, so that greedy walks along its
+     * edges reach the vertex closest to any point
+     */
+    public final boolean complete;
+
+    private final Map<PointD, Integer> indices;
+    private volatile Locator locator;
+
+    /**
+     * A compact, immutable triangle mesh, usually obtained through {@link EroderGeometry#mesh()}
+     *
+     * @param eroderGeometry The {@link EroderGeometry} whose graph to triangulate
+     */
+    public TriangleMesh(EroderGeometry eroderGeometry) {
+        EroderGeometryToroidal torus = eroderGeometry instanceof EroderGeometryToroidal t ? t : null;
+        Image[] images = images(eroderGeometry, torus);
+        Arrays.sort(images, Comparator.<Image>comparingDouble(Image::y).thenComparingDouble(Image::x));
+        int vertexCount = images.length;
+        vertices = new PointD[vertexCount];
+        xs = new double[vertexCount];
+        ys = new double[vertexCount];
+        indices = new HashMap<>(2 * vertexCount);
+        // the vertex of every periodic image of every node, by offset
+        Map<PointD, int[]> offsets = new HashMap<>(2 * vertexCount);
+        for (int v = 0; v < vertexCount; v++) {
+            Image image = images[v];
+            vertices[v] = image.node();
+            xs[v] = image.x();
+            ys[v] = image.y();
+            if (image.i() == 0 && image.j() == 0) indices.put(image.node(), v);
+            offsets.computeIfAbsent(image.node(), node -> {
+                int[] slots = new int[9];
+                Arrays.fill(slots, -1);
+                return slots;
+            })[slot(image.i(), image.j())] = v;
+        }
+
+        // the neighbors of every vertex, sorted by angle, the wrapping ones being taken at their closest image
+        int[][] sorted = new int[vertexCount][];
+        IntStream.range(0, vertexCount).parallel().forEach(v -> {
+            Image image = images[v];
+            Set<PointD> graphNeighbors = eroderGeometry.graph.get(image.node());
+            int[] found = new int[graphNeighbors.size()];
+            int size = 0;
+            for (PointD neighbor : graphNeighbors) {
+                int[] slots = offsets.get(neighbor);
+                if (slots == null) continue;
+                int i = image.i(), j = image.j();
+                if (torus != null) {
+                    i += (int) Math.rint((image.node().x - neighbor.x) / torus.period.width());
+                    j += (int) Math.rint((image.node().y - neighbor.y) / torus.period.height());
+                }
+                if (Math.abs(i) > 1 || Math.abs(j) > 1 || slots[slot(i, j)] < 0) continue;
+                found[size++] = slots[slot(i, j)];
+            }
+            sorted[v] = Arrays.stream(found, 0, size).boxed()
+                    .sorted(Comparator.comparingDouble(neighbor -> Math.atan2(ys[neighbor] - ys[v], xs[neighbor] - xs[v])))
+                    .mapToInt(Integer::intValue).toArray();
+        });
+        boolean complete = true;
+        for (int v = 0; v < vertexCount; v++)
+            complete &= sorted[v].length == eroderGeometry.graph.get(vertices[v]).size();
+        this.complete = complete;
+        neighborStart = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; v++)
+            neighborStart[v + 1] = neighborStart[v] + sorted[v].length;
+        neighbors = new int[neighborStart[vertexCount]];
+        for (int v = 0; v < vertexCount; v++)
+            System.arraycopy(sorted[v], 0, neighbors, neighborStart[v], sorted[v].length);
+
+        // every face is found once, from its lowest vertex
+        int[] found = new int[3 * neighbors.length];
+        int size = 0;
+        for (int v = 0; v < vertexCount; v++) {
+            int degree = sorted[v].length;
+            if (degree < 2) continue;
+            for (int k = 0; k < degree; k++) {
+                int a = sorted[v][k], b = sorted[v][(k + 1) % degree];
+                if (a < v || b < v || a == b) continue;
+                if ((xs[a] - xs[v]) * (ys[b] - ys[v]) - (xs[b] - xs[v]) * (ys[a] - ys[v]) <= 0) continue;
+                if (!isNeighbor(a, b)) continue;
+                // triangles between periodic images only are kept where they overlap the period
+                if (torus != null && !overlaps(torus.period, v, a, b)) continue;
+                found[size++] = v;
+                found[size++] = a;
+                found[size++] = b;
+            }
+        }
+        triangles = Arrays.copyOf(found, size);
+
+        Map<Long, Integer> halfEdges = new HashMap<>(2 * size);
+        for (int t = 0; t < size / 3; t++)
+            for (int k = 0; k < 3; k++)
+                halfEdges.put(halfEdge(triangles[3 * t + k], triangles[3 * t + (k + 1) % 3]), t);
+        adjacency = new int[size];
+        for (int t = 0; t < size / 3; t++)
+            for (int k = 0; k < 3; k++)
+                adjacency[3 * t + k] = halfEdges.getOrDefault(halfEdge(triangles[3 * t + (k + 1) % 3], triangles[3 * t + k]), -1);
+    }
+
+    /**
+     * The number of vertices in the mesh
+     *
+     * @return The number of vertices in the mesh
+     */
+    public int vertexCount() {
+        return vertices.length;
+    }
+
+    /**
+     * The number of triangles in the mesh
+     *
+     * @return The number of triangles in the mesh
+     */
+    public int triangleCount() {
+        return triangles.length / 3;
+    }
+
+    /**
+     * Finds the index of the vertex of a node
+     *
+     * @param node The node
+     * @return The index of its vertex, -1 if it is not part of the mesh
+     */
+    public int indexOf(PointD node) {
+        return indices.getOrDefault(node, -1);
+    }
+
+    /**
+     * Whether a triangle contains a point, its edges included
+     *
+     * @param triangle The index of the triangle
+     * @param x        The X coordinate of the point
+     * @param y        The Y coordinate of that point
+     * @return true if the point lies within the triangle
+     */
+    public boolean contains(int triangle, double x, double y) {
+        int a = triangles[3 * triangle], b = triangles[3 * triangle + 1], c = triangles[3 * triangle + 2];
+        return (xs[b] - xs[a]) * (y - ys[a]) - (x - xs[a]) * (ys[b] - ys[a]) >= 0
+                && (xs[c] - xs[b]) * (y - ys[b]) - (x - xs[b]) * (ys[c] - ys[b]) >= 0
+                && (xs[a] - xs[c]) * (y - ys[c]) - (x - xs[c]) * (ys[a] - ys[c]) >= 0;
+    }
+
+    /**
+     * Finds the triangle containing a point through a bucket grid built on first use
+     *
+     * @param x The X coordinate of the point
+     * @param y The Y coordinate of that point
+     * @return The index of a triangle containing the point, -1 if it lies outside the mesh
+     */
+    public int locate(double x, double y) {
+        Locator locator = this.locator;
+        if (locator == null) synchronized (this) {
+            locator = this.locator;
+            if (locator == null) this.locator = locator = new Locator();
+        }
+        return locator.locate(x, y);
+    }
+
+    /**
+     * The height of every vertex
+     *
+     * @param heightMap The mapping from each node to its height
+     * @return The height of every vertex
+     */
+    public double[] heights(Map<PointD, Double> heightMap) {
+        double[] heights = new double[vertices.length];
+        for (int v = 0; v < vertices.length; v++)
+            heights[v] = heightMap.get(vertices[v]);
+        return heights;
+    }
+
+    /**
+     * The unit normal of every vertex, the normalized sum of the unit normals of the triangles around its node
+     *
+     * @param heights The height of every vertex
+     * @return The (x, y, z) components of the normal of every vertex, flattened
+     */
+    public double[] normals(double[] heights) {
+        double[] normals = new double[3 * vertices.length];
+        for (int t = 0; t < triangles.length / 3; t++) {
+            int a = triangles[3 * t], b = triangles[3 * t + 1], c = triangles[3 * t + 2];
+            double abx = xs[b] - xs[a], aby = ys[b] - ys[a], abz = heights[b] - heights[a];
+            double acx = xs[c] - xs[a], acy = ys[c] - ys[a], acz = heights[c] - heights[a];
+            double nx = aby * acz - abz * acy, ny = abz * acx - abx * acz, nz = abx * acy - aby * acx;
+            double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            nx /= length;
+            ny /= length;
+            nz /= length;
+            accumulate(normals, indices.get(vertices[a]), nx, ny, nz);
+            accumulate(normals, indices.get(vertices[b]), nx, ny, nz);
+            accumulate(normals, indices.get(vertices[c]), nx, ny, nz);
+        }
+        for (PointD node : indices.keySet()) {
+            int v = indices.get(node);
+            double length = Math.sqrt(normals[3 * v] * normals[3 * v] + normals[3 * v + 1] * normals[3 * v + 1]
+                    + normals[3 * v + 2] * normals[3 * v + 2]);
+            normals[3 * v] /= length;
+            normals[3 * v + 1] /= length;
+            normals[3 * v + 2] /= length;
+        }
+        // periodic images share the normal of their node
+        for (int v = 0; v < vertices.length; v++)
+            System.arraycopy(normals, 3 * indices.get(vertices[v]), normals, 3 * v, 3);
+        return normals;
+    }
+
+    private static void accumulate(double[] normals, int vertex, double nx, double ny, double nz) {
+        normals[3 * vertex] += nx;
+        normals[3 * vertex + 1] += ny;
+        normals[3 * vertex + 2] += nz;
+    }
+
+    private static Image[] images(EroderGeometry eroderGeometry, EroderGeometryToroidal torus) {
+        List<Image> images = new ArrayList<>(eroderGeometry.nodeCount());
+        if (torus == null) {
+            for (PointD node : eroderGeometry.graph.keySet())
+                images.add(new Image(node, 0, 0, node.x, node.y));
+            return images.toArray(Image[]::new);
+        }
+        // the images reaching into the period through one edge
+        double margin = 0;
+        for (Map.Entry<PointD, Set<PointD>> entry : eroderGeometry.graph.entrySet())
+            for (PointD neighbor : entry.getValue())
+                margin = Math.max(margin, torus.distance(entry.getKey(), neighbor));
+        RectD period = torus.period;
+        for (PointD node : eroderGeometry.graph.keySet())
+            for (int j = -1; j <= 1; j++)
+                for (int i = -1; i <= 1; i++) {
+                    double x = node.x + i * period.width(), y = node.y + j * period.height();
+                    if ((i == 0 && j == 0) || (x >= period.min.x - margin && x <= period.max.x + margin
+                            && y >= period.min.y - margin && y <= period.max.y + margin))
+                        images.add(new Image(node, i, j, x, y));
+                }
+        return images.toArray(Image[]::new);
+    }
+
+    private static int slot(int i, int j) {
+        return 3 * (j + 1) + i + 1;
+    }
+
+    private boolean overlaps(RectD period, int a, int b, int c) {
+        return Math.max(xs[a], Math.max(xs[b], xs[c])) > period.min.x
+                && Math.min(xs[a], Math.min(xs[b], xs[c])) < period.max.x
+                && Math.max(ys[a], Math.max(ys[b], ys[c])) > period.min.y
+                && Math.min(ys[a], Math.min(ys[b], ys[c])) < period.max.y;
+    }
+
+    private boolean isNeighbor(int a, int b) {
+        for (int i = neighborStart[a]; i < neighborStart[a + 1]; i++)
+            if (neighbors[i] == b) return true;
+        return false;
+    }
+
+    private static long halfEdge(int from, int to) {
+        return ((long) from << 32) | (to & 0xFFFFFFFFL);
+    }
+
+    // a node at the offset (i, j) in periods from its position
+    private record Image(PointD node, int i, int j, double x, double y) {
+    }
+
+    // a uniform grid of cells listing the triangles whose bounding box overlaps them
+    private final class Locator {
+        private final double minX;
+        private final double minY;
+        private final double cellSize;
+        private final int columns;
+        private final int rows;
+        private final int[] cellStart;
+        private final int[] cellTriangles;
+
+        Locator() {
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            for (int v = 0; v < xs.length; v++) {
+                minX = Math.min(minX, xs[v]);
+                minY = Math.min(minY, ys[v]);
+                maxX = Math.max(maxX, xs[v]);
+                maxY = Math.max(maxY, ys[v]);
+            }
+            if (xs.length == 0) minX = minY = maxX = maxY = 0;
+            this.minX = minX;
+            this.minY = minY;
+            double cellSize = Math.sqrt((maxX - minX) * (maxY - minY) / Math.max(1, triangleCount()));
+            this.cellSize = cellSize > 0 ? cellSize : 1;
+            this.columns = column(maxX) + 1;
+            this.rows = row(maxY) + 1;
+
+            int[] bounds = new int[4];
+            cellStart = new int[columns * rows + 1];
+            for (int t = 0; t < triangleCount(); t++) {
+                bounds(t, bounds);
+                for (int r = bounds[1]; r <= bounds[3]; r++) for (int c = bounds[0]; c <= bounds[2]; c++)
+                    cellStart[r * columns + c + 1]++;
+            }
+            for (int cell = 0; cell < columns * rows; cell++)
+                cellStart[cell + 1] += cellStart[cell];
+            int[] cursor = Arrays.copyOf(cellStart, columns * rows);
+            cellTriangles = new int[cellStart[columns * rows]];
+            for (int t = 0; t < triangleCount(); t++) {
+                bounds(t, bounds);
+                for (int r = bounds[1]; r <= bounds[3]; r++) for (int c = bounds[0]; c <= bounds[2]; c++)
+                    cellTriangles[cursor[r * columns + c]++] = t;
+            }
+        }
+
+        int locate(double x, double y) {
+            int column = column(x), row = row(y);
+            if (column < 0 || row < 0 || column >= columns || row >= rows) return -1;
+            int cell = row * columns + column;
+            for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++)
+                if (contains(cellTriangles[i], x, y)) return cellTriangles[i];
+            return -1;
+        }
+
+        private void bounds(int triangle, int[] out) {
+            int a = triangles[3 * triangle], b = triangles[3 * triangle + 1], c = triangles[3 * triangle + 2];
+            out[0] = column(Math.min(xs[a], Math.min(xs[b], xs[c])));
+            out[1] = row(Math.min(ys[a], Math.min(ys[b], ys[c])));
+            out[2] = column(Math.max(xs[a], Math.max(xs[b], xs[c])));
+            out[3] = row(Math.max(ys[a], Math.max(ys[b], ys[c])));
+        }
+
+        private int column(double x) {
+            return (int) Math.floor((x - minX) / cellSize);
+        }
+
+        private int row(double y) {
+            return (int) Math.floor((y - minY) / cellSize);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.github.keyboardcat1.erosio.export;
+
+import com.github.keyboardcat1.erosio.interpolation.Interpolator;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Streams the heights of an {@link Interpolator} over a grid straight to disk, holding only a few bands or tiles of
+ * samples in memory at once <br/>
+ * Samples are taken at pixel centers, row 0 lying along the lower edge of the bounds as in
+ * {@link Interpolator#sampleGrid}. Raw and GeoTIFF exports write independent tiles in parallel at their final
+ * positions in the file, while PNG export samples the next band of rows while compressing the current one.
+ */
+public class HeightmapExporter {
+    /**
+     * The number of rows in a band, and the side length of a GeoTIFF tile
+     */
+    public static final int TILE_SIZE = 256;
+    private static final int PNG_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The {@link Interpolator} to export the heights of
+     */
+    public final Interpolator interpolator;
+    /**
+     * The rectangle covered by the grid
+     */
+    public final RectD bounds;
+    /**
+     * The number of pixels on the x-axis
+     */
+    public final int width;
+    /**
+     * The number of pixels on the y-axis
+     */
+    public final int height;
+
+    private final double pixelWidth;
+    private final double pixelHeight;
+
+    /**
+     * Streams the heights of an {@link Interpolator} over a grid straight to disk
+     *
+     * @param interpolator The {@link Interpolator} to export the heights of
+     * @param bounds       The rectangle covered by the grid
+     * @param width        The number of pixels on the x-axis
+     * @param height       The number of pixels on the y-axis
+     */
+    public HeightmapExporter(Interpolator interpolator, RectD bounds, int width, int height) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("There must be at least one pixel on each axis, got " + width + "x" + height);
+        this.interpolator = interpolator;
+        this.bounds = bounds;
+        this.width = width;
+        this.height = height;
+        this.pixelWidth = bounds.width() / width;
+        this.pixelHeight = bounds.height() / height;
+    }
+
+    /**
+     * Writes the heights as a 16-bit grayscale PNG, mapping minHeight to 1 and maxHeight to 65535 <br/>
+     * Points that are not covered receive 0, which is marked transparent
+     *
+     * @param path      The file to write
+     * @param minHeight The height mapped to the darkest opaque gray
+     * @param maxHeight The height mapped to white
+     * @throws IOException if the file cannot be written
+     */
+    public void writePNG(Path path, double minHeight, double maxHeight) throws IOException {
+        Deflater deflater = new Deflater();
+        try (FileChannel channel = open(path)) {
+            ByteBuffer header = ByteBuffer.allocate(13);
+            header.putInt(width).putInt(height).put((byte) 16).put((byte) 0).put((byte) 0).put((byte) 0).put((byte) 0);
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}));
+            writeChunk(channel, "IHDR", header.array(), 13);
+            writeChunk(channel, "tRNS", new byte[2], 2);
+
+            byte[] scanline = new byte[1 + 2 * width];
+            byte[] deflated = new byte[PNG_BUFFER_SIZE];
+            int[] deflatedSize = {0};
+            double scale = 65534 / (maxHeight - minHeight);
+            CompletableFuture<float[]> band = CompletableFuture.completedFuture(sampleBand(0));
+            for (int fromRow = 0; fromRow < height; fromRow += TILE_SIZE) {
+                float[] samples = band.join();
+                int nextRow = fromRow + TILE_SIZE;
+                if (nextRow < height) band = CompletableFuture.supplyAsync(() -> sampleBand(nextRow));
+                for (int row = 0; row < Math.min(TILE_SIZE, height - fromRow); row++) {
+                    // Sub filter, each byte minus the same byte of the previous sample
+                    scanline[0] = 1;
+                    int previous = 0;
+                    for (int i = 0; i < width; i++) {
+                        float sample = samples[row * width + i];
+                        int value = Float.isNaN(sample) ? 0 :
+                                (int) Math.max(1, Math.min(65535, Math.round((sample - minHeight) * scale) + 1));
+                        scanline[1 + 2 * i] = (byte) ((value >>> 8) - (previous >>> 8));
+                        scanline[2 + 2 * i] = (byte) (value - previous);
+                        previous = value;
+                    }
+                    deflater.setInput(scanline);
+                    while (!deflater.needsInput()) deflate(channel, deflater, deflated, deflatedSize);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) deflate(channel, deflater, deflated, deflatedSize);
+            if (deflatedSize[0] > 0) writeChunk(channel, "IDAT", deflated, deflatedSize[0]);
+            writeChunk(channel, "IEND", new byte[0], 0);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Writes the heights as raw little-endian 32-bit floats in row-major order, with no header <br/>
+     * Points that are not covered receive {@link Float#NaN}
+     *
+     * @param path The file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeRaw(Path path) throws IOException {
+        try (FileChannel channel = open(path)) {
+            IntStream.range(0, (height + TILE_SIZE - 1) / TILE_SIZE).parallel().forEach(band -> {
+                float[] samples = sampleBand(band * TILE_SIZE);
+                ByteBuffer buffer = ByteBuffer.allocate(4 * samples.length).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.asFloatBuffer().put(samples);
+                write(channel, buffer, 4L * band * TILE_SIZE * width);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Writes the heights as an uncompressed tiled GeoTIFF of 32-bit floats, georeferenced in erosion basis by a
+     * model transformation and marking {@link Float#NaN} as no data <br/>
+     * Tiles overhanging the grid are filled with samples beyond its bounds, as TIFF requires whole tiles
+     *
+     * @param path The file to write
+     * @throws IOException if the file cannot be written or would exceed the 4 GiB of a classic TIFF
+     */
+    public void writeGeoTIFF(Path path) throws IOException {
+        int tileColumns = (width + TILE_SIZE - 1) / TILE_SIZE, tileRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        int tileCount = tileColumns * tileRows;
+        long tileBytes = 4L * TILE_SIZE * TILE_SIZE;
+
+        // the header, then the directory, then the arrays it points to, then the tiles
+        short[] geoKeys = {1, 1, 0, 2, 1024, 0, 1, 32767, 1025, 0, 1, 1};
+        int entryCount = 15;
+        long offsets = 8 + 2 + 12L * entryCount + 4;
+        long byteCounts = offsets + 4L * tileCount;
+        long transformation = byteCounts + 4L * tileCount;
+        long keys = transformation + 8 * 16;
+        long data = keys + 2L * geoKeys.length;
+        if (data + tileCount * tileBytes > 0xFFFFFFFFL)
+            throw new IOException("A " + width + "x" + height + " GeoTIFF exceeds the 4 GiB of a classic TIFF");
+
+        ByteBuffer header = ByteBuffer.allocate((int) data).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        header.putShort((short) entryCount);
+        entry(header, 256, 4, 1, width);
+        entry(header, 257, 4, 1, height);
+        entry(header, 258, 3, 1, 32);
+        entry(header, 259, 3, 1, 1);
+        entry(header, 262, 3, 1, 1);
+        entry(header, 277, 3, 1, 1);
+        entry(header, 284, 3, 1, 1);
+        entry(header, 322, 4, 1, TILE_SIZE);
+        entry(header, 323, 4, 1, TILE_SIZE);
+        entry(header, 324, 4, tileCount, tileCount == 1 ? data : offsets);
+        entry(header, 325, 4, tileCount, tileCount == 1 ? tileBytes : byteCounts);
+        entry(header, 339, 3, 1, 3);
+        entry(header, 34264, 12, 16, transformation);
+        entry(header, 34735, 3, geoKeys.length, keys);
+        header.putShort((short) 42113).putShort((short) 2).putInt(4).put("nan\0".getBytes(StandardCharsets.US_ASCII));
+        header.putInt(0);
+        for (int tile = 0; tile < tileCount; tile++) header.putInt((int) (data + tile * tileBytes));
+        for (int tile = 0; tile < tileCount; tile++) header.putInt((int) tileBytes);
+        // pixel (column, row) maps to (minX + column * pixelWidth, minY + row * pixelHeight)
+        for (double value : new double[]{pixelWidth, 0, 0, bounds.min.x, 0, pixelHeight, 0, bounds.min.y,
+                0, 0, 0, 0, 0, 0, 0, 1})
+            header.putDouble(value);
+        for (short value : geoKeys) header.putShort(value);
+        header.flip();
+
+        try (FileChannel channel = open(path)) {
+            write(channel, header, 0);
+            IntStream.range(0, tileCount).parallel().forEach(tile -> {
+                double minX = bounds.min.x + (tile % tileColumns) * TILE_SIZE * pixelWidth;
+                double minY = bounds.min.y + (tile / tileColumns) * TILE_SIZE * pixelHeight;
+                float[] samples = new float[TILE_SIZE * TILE_SIZE];
+                interpolator.sampleGrid(new RectD(minX, minY, minX + TILE_SIZE * pixelWidth,
+                        minY + TILE_SIZE * pixelHeight), TILE_SIZE, TILE_SIZE, samples);
+                ByteBuffer buffer = ByteBuffer.allocate((int) tileBytes).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.asFloatBuffer().put(samples);
+                write(channel, buffer, data + tile * tileBytes);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // the samples of up to TILE_SIZE rows starting at fromRow
+    private float[] sampleBand(int fromRow) {
+        int rows = Math.min(TILE_SIZE, height - fromRow);
+        float[] samples = new float[rows * width];
+        interpolator.sampleGrid(new RectD(bounds.min.x, bounds.min.y + fromRow * pixelHeight,
+                bounds.max.x, bounds.min.y + (fromRow + rows) * pixelHeight), width, rows, samples);
+        return samples;
+    }
+
+    // fills the output buffer, flushing it as an IDAT chunk whenever it is full
+    private static void deflate(FileChannel channel, Deflater deflater, byte[] deflated, int[] size) throws IOException {
+        size[0] += deflater.deflate(deflated, size[0], deflated.length - size[0]);
+        if (size[0] == deflated.length) {
+            writeChunk(channel, "IDAT", deflated, size[0]);
+            size[0] = 0;
+        }
+    }
+
+    private static void writeChunk(FileChannel channel, String type, byte[] data, int length) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(12 + length);
+        chunk.putInt(length).put(type.getBytes(StandardCharsets.US_ASCII)).put(data, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(chunk.array(), 4, 4 + length);
+        chunk.putInt((int) crc.getValue()).flip();
+        while (chunk.hasRemaining()) channel.write(chunk);
+    }
+
+    // a directory entry, its value inline if it fits in 4 bytes and an offset to it otherwise
+    private static void entry(ByteBuffer header, int tag, int type, int count, long value) {
+        header.putShort((short) tag).putShort((short) type).putInt(count);
+        if (type == 3 && count == 1) header.putShort((short) value).putShort((short) 0);
+        else header.putInt((int) value);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) {
+        try {
+            while (buffer.hasRemaining()) position += channel.write(buffer, position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+}
@@ -0,0 +1,308 @@
+package com.github.keyboardcat1.erosio.export;
+
+import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.TriangleMesh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Exports the geometry's {@link TriangleMesh} with the heights of an {@link EroderResults} as binary PLY or glTF,
+ * without resampling <br/>
+ * Every vertex carries its position, its unit normal and the area it drains, and the triangles index vertices with
+ * ints in counter-clockwise order seen from above. The mesh can optionally be refined by splitting every triangle into
+ * six along its Phong tessellation. Buffers are filled from the flat arrays through a single direct
+ * {@link ByteBuffer} and written with a {@link FileChannel}.
+ */
+public class MeshExporter {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The (x, y, z) position of every vertex in erosion basis, z being the height, flattened and not to be modified
+     */
+    public final float[] positions;
+    /**
+     * The (x, y, z) unit normal of every vertex, (0, 0, 1) without incident faces, flattened and not to be modified
+     */
+    public final float[] normals;
+    /**
+     * The area drained by every vertex, not to be modified
+     */
+    public final float[] drainage;
+    /**
+     * The three vertices of every triangle in counter-clockwise order, flattened and not to be modified
+     */
+    public final int[] indices;
+
+    /**
+     * Exports the geometry's {@link TriangleMesh} with the heights of an {@link EroderResults}
+     *
+     * @param eroderResults The {@link EroderResults} to export
+     */
+    public MeshExporter(EroderResults eroderResults) {
+        TriangleMesh mesh = eroderResults.eroderGeometry.mesh();
+        double[] heights = eroderResults.meshHeights();
+        double[] normals = eroderResults.meshNormals();
+        double[] drainage = eroderResults.meshDrainage();
+        int vertexCount = mesh.vertexCount();
+
+        this.positions = new float[3 * vertexCount];
+        this.normals = new float[3 * vertexCount];
+        this.drainage = new float[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            positions[3 * v] = (float) mesh.xs[v];
+            positions[3 * v + 1] = (float) mesh.ys[v];
+            positions[3 * v + 2] = (float) heights[v];
+            normal(this.normals, v, normals[3 * v], normals[3 * v + 1], normals[3 * v + 2]);
+            this.drainage[v] = (float) drainage[v];
+        }
+        this.indices = mesh.triangles.clone();
+    }
+
+    /**
+     * Exports the geometry's {@link TriangleMesh} with the heights of an {@link EroderResults}, every triangle being
+     * split into six along its Phong tessellation <br/>
+     * New vertices lie at the midpoints of the edges, shared by the two triangles around them, and at the centroids.
+     * Their normals and drainage are interpolated linearly.
+     *
+     * @param eroderResults The {@link EroderResults} to export
+     * @param alpha         Mix coefficient between linear interpolation and Phong tessellation
+     */
+    public MeshExporter(EroderResults eroderResults, double alpha) {
+        TriangleMesh mesh = eroderResults.eroderGeometry.mesh();
+        double[] heights = eroderResults.meshHeights();
+        double[] normals = eroderResults.meshNormals();
+        double[] drainage = eroderResults.meshDrainage();
+        int vertexCount = mesh.vertexCount(), triangleCount = mesh.triangleCount();
+
+        // the vertex of the midpoint of every edge of every triangle, numbered after the mesh's vertices
+        int[] midpoints = new int[3 * triangleCount];
+        int count = vertexCount;
+        for (int t = 0; t < triangleCount; t++) for (int k = 0; k < 3; k++) {
+            int neighbor = mesh.adjacency[3 * t + k];
+            if (neighbor < 0 || neighbor > t) midpoints[3 * t + k] = count++;
+            else for (int j = 0; j < 3; j++)
+                if (mesh.adjacency[3 * neighbor + j] == t) midpoints[3 * t + k] = midpoints[3 * neighbor + j];
+        }
+        int total = count + triangleCount;
+
+        double[] p = new double[3 * total], n = new double[3 * total], d = new double[total];
+        for (int v = 0; v < vertexCount; v++) {
+            p[3 * v] = mesh.xs[v];
+            p[3 * v + 1] = mesh.ys[v];
+            p[3 * v + 2] = heights[v];
+            System.arraycopy(normals, 3 * v, n, 3 * v, 3);
+            d[v] = drainage[v];
+        }
+        this.indices = new int[18 * triangleCount];
+        for (int t = 0; t < triangleCount; t++) {
+            int a = mesh.triangles[3 * t], b = mesh.triangles[3 * t + 1], c = mesh.triangles[3 * t + 2];
+            int ab = midpoints[3 * t], bc = midpoints[3 * t + 1], ca = midpoints[3 * t + 2], center = count + t;
+            phong(p, n, d, alpha, a, b, c, .5, .5, 0, ab);
+            phong(p, n, d, alpha, a, b, c, 0, .5, .5, bc);
+            phong(p, n, d, alpha, a, b, c, .5, 0, .5, ca);
+            phong(p, n, d, alpha, a, b, c, 1 / 3D, 1 / 3D, 1 / 3D, center);
+            int[] fan = {a, ab, b, bc, c, ca, a};
+            for (int s = 0; s < 6; s++) {
+                indices[18 * t + 3 * s] = fan[s];
+                indices[18 * t + 3 * s + 1] = fan[s + 1];
+                indices[18 * t + 3 * s + 2] = center;
+            }
+        }
+
+        this.positions = new float[3 * total];
+        this.normals = new float[3 * total];
+        this.drainage = new float[total];
+        for (int v = 0; v < total; v++) {
+            for (int k = 0; k < 3; k++) positions[3 * v + k] = (float) p[3 * v + k];
+            normal(this.normals, v, n[3 * v], n[3 * v + 1], n[3 * v + 2]);
+            this.drainage[v] = (float) d[v];
+        }
+    }
+
+    /**
+     * The number of vertices
+     *
+     * @return The number of vertices
+     */
+    public int vertexCount() {
+        return drainage.length;
+    }
+
+    /**
+     * The number of triangles
+     *
+     * @return The number of triangles
+     */
+    public int triangleCount() {
+        return indices.length / 3;
+    }
+
+    /**
+     * Writes the mesh as a binary little-endian PLY, with float properties x, y, z, nx, ny, nz and drainage on every
+     * vertex and an int vertex_indices list on every face
+     *
+     * @param path The file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writePLY(Path path) throws IOException {
+        String header = "ply\nformat binary_little_endian 1.0\ncomment Erosio\n"
+                + "element vertex " + vertexCount() + "\n"
+                + "property float x\nproperty float y\nproperty float z\n"
+                + "property float nx\nproperty float ny\nproperty float nz\n"
+                + "property float drainage\n"
+                + "element face " + triangleCount() + "\n"
+                + "property list uchar int vertex_indices\nend_header\n";
+        try (FileChannel channel = open(path)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(header.getBytes(StandardCharsets.US_ASCII));
+            for (int v = 0; v < vertexCount(); v++) {
+                if (buffer.remaining() < 28) flush(channel, buffer);
+                buffer.putFloat(positions[3 * v]).putFloat(positions[3 * v + 1]).putFloat(positions[3 * v + 2]);
+                buffer.putFloat(normals[3 * v]).putFloat(normals[3 * v + 1]).putFloat(normals[3 * v + 2]);
+                buffer.putFloat(drainage[v]);
+            }
+            for (int t = 0; t < triangleCount(); t++) {
+                if (buffer.remaining() < 13) flush(channel, buffer);
+                buffer.put((byte) 3).putInt(indices[3 * t]).putInt(indices[3 * t + 1]).putInt(indices[3 * t + 2]);
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Writes the mesh as a binary glTF (.glb) holding a single triangle primitive with POSITION, NORMAL and _DRAINAGE
+     * attributes and unsigned int indices <br/>
+     * The buffers are in erosion basis with z up, its node being rotated so that heights point along the y-axis of
+     * glTF.
+     *
+     * @param path The file to write
+     * @throws IOException if the file cannot be written or would exceed the 4 GiB of a GLB
+     */
+    public void writeGLB(Path path) throws IOException {
+        int vertexCount = vertexCount();
+        long positionsOffset = 0, normalsOffset = 12L * vertexCount, drainageOffset = 24L * vertexCount;
+        long indicesOffset = 28L * vertexCount, binLength = indicesOffset + 4L * indices.length;
+
+        float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (int v = 0; v < vertexCount; v++) for (int c = 0; c < 3; c++) {
+            min[c] = Math.min(min[c], positions[3 * v + c]);
+            max[c] = Math.max(max[c], positions[3 * v + c]);
+        }
+        String json = "{\"asset\":{\"version\":\"2.0\",\"generator\":\"Erosio\"},\"scene\":0,\"scenes\":[{\"nodes\":[0]}],"
+                + "\"nodes\":[{\"mesh\":0,\"rotation\":[-0.7071067811865476,0,0,0.7071067811865476]}],"
+                + "\"meshes\":[{\"primitives\":[{\"attributes\":{\"POSITION\":0,\"NORMAL\":1,\"_DRAINAGE\":2},"
+                + "\"indices\":3,\"mode\":4}]}],"
+                + "\"buffers\":[{\"byteLength\":" + binLength + "}],"
+                + "\"bufferViews\":["
+                + bufferView(positionsOffset, 12L * vertexCount, 34962) + ","
+                + bufferView(normalsOffset, 12L * vertexCount, 34962) + ","
+                + bufferView(drainageOffset, 4L * vertexCount, 34962) + ","
+                + bufferView(indicesOffset, 4L * indices.length, 34963) + "],"
+                + "\"accessors\":["
+                + "{\"bufferView\":0,\"componentType\":5126,\"count\":" + vertexCount + ",\"type\":\"VEC3\","
+                + "\"min\":[" + min[0] + "," + min[1] + "," + min[2] + "],"
+                + "\"max\":[" + max[0] + "," + max[1] + "," + max[2] + "]},"
+                + "{\"bufferView\":1,\"componentType\":5126,\"count\":" + vertexCount + ",\"type\":\"VEC3\"},"
+                + "{\"bufferView\":2,\"componentType\":5126,\"count\":" + vertexCount + ",\"type\":\"SCALAR\"},"
+                + "{\"bufferView\":3,\"componentType\":5125,\"count\":" + indices.length + ",\"type\":\"SCALAR\"}]}";
+        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        int jsonLength = (jsonBytes.length + 3) & ~3;
+        // lengths are unsigned 32-bit integers
+        long glbLength = 12 + 8 + jsonLength + 8 + binLength;
+        if (glbLength > 0xFFFFFFFFL)
+            throw new IOException("A GLB of " + glbLength + " bytes exceeds the 4 GiB allowed by its header");
+
+        try (FileChannel channel = open(path)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(0x46546C67).putInt(2).putInt((int) glbLength);
+            buffer.putInt(jsonLength).putInt(0x4E4F534A);
+            for (int i = 0; i < jsonLength; i++) {
+                if (!buffer.hasRemaining()) flush(channel, buffer);
+                buffer.put(i < jsonBytes.length ? jsonBytes[i] : (byte) ' ');
+            }
+            if (buffer.remaining() < 8) flush(channel, buffer);
+            buffer.putInt((int) binLength).putInt(0x004E4942);
+            put(channel, buffer, positions);
+            put(channel, buffer, normals);
+            put(channel, buffer, drainage);
+            for (int i = 0; i < indices.length; ) {
+                if (buffer.remaining() < 4) flush(channel, buffer);
+                int length = Math.min(indices.length - i, buffer.remaining() / 4);
+                buffer.asIntBuffer().put(indices, i, length);
+                buffer.position(buffer.position() + 4 * length);
+                i += length;
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    /*
+     * The point of barycentric coordinates (u, v, w) on the Phong patch of triangle (a, b, c), mixed with the flat
+     * triangle by alpha, with linearly interpolated normal and drainage
+     */
+    private static void phong(double[] p, double[] n, double[] d, double alpha,
+                              int a, int b, int c, double u, double v, double w, int out) {
+        for (int k = 0; k < 3; k++) {
+            double flat = p[3 * a + k] * u + p[3 * b + k] * v + p[3 * c + k] * w;
+            double patch = p[3 * a + k] * (u * u) + p[3 * b + k] * (v * v) + p[3 * c + k] * (w * w)
+                    + (project(p, n, a, b, k) + project(p, n, b, a, k)) * (u * v)
+                    + (project(p, n, b, c, k) + project(p, n, c, b, k)) * (v * w)
+                    + (project(p, n, c, a, k) + project(p, n, a, c, k)) * (w * u);
+            p[3 * out + k] = patch * alpha + flat * (1 - alpha);
+            n[3 * out + k] = n[3 * a + k] * u + n[3 * b + k] * v + n[3 * c + k] * w;
+        }
+        d[out] = d[a] * u + d[b] * v + d[c] * w;
+    }
+
+    // component k of the projection of vertex j onto the tangent plane of vertex i
+    private static double project(double[] p, double[] n, int i, int j, int k) {
+        double distance = (p[3 * j] - p[3 * i]) * n[3 * i] + (p[3 * j + 1] - p[3 * i + 1]) * n[3 * i + 1]
+                + (p[3 * j + 2] - p[3 * i + 2]) * n[3 * i + 2];
+        return p[3 * j + k] - n[3 * i + k] * distance;
+    }
+
+    private static String bufferView(long offset, long length, int target) {
+        return "{\"buffer\":0,\"byteOffset\":" + offset + ",\"byteLength\":" + length + ",\"target\":" + target + "}";
+    }
+
+    private static void put(FileChannel channel, ByteBuffer buffer, float[] array) throws IOException {
+        for (int i = 0; i < array.length; ) {
+            if (buffer.remaining() < 4) flush(channel, buffer);
+            int length = Math.min(array.length - i, buffer.remaining() / 4);
+            buffer.asFloatBuffer().put(array, i, length);
+            buffer.position(buffer.position() + 4 * length);
+            i += length;
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    // the unit normal of a vertex, pointing up for vertices without any incident face whose normal is undefined
+    private static void normal(float[] out, int v, double x, double y, double z) {
+        double length = Math.sqrt(x * x + y * y + z * z);
+        if (!(length > 0) || Double.isInfinite(length)) {
+            x = 0;
+            y = 0;
+            z = length = 1;
+        }
+        out[3 * v] = (float) (x / length);
+        out[3 * v + 1] = (float) (y / length);
+        out[3 * v + 2] = (float) (z / length);
+    }
+}
@@ -0,0 +1,201 @@
+package com.github.keyboardcat1.erosio.export;
+
+import com.github.keyboardcat1.erosio.EroderEdge;
+import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryToroidal;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The scan conversion of the fluvial network of an {@link EroderResults} into channel and width rasters <br/>
+ * Every {@link EroderEdge} draining at least {@link #drainageCutoff} is burnt as an anti-aliased segment whose width
+ * is widthScale * volume ^ widthExponent, linearly varying between its two endpoints. Rasters are sampled at pixel
+ * centers and rendered in parallel square tiles, each only drawing the segments binned into it. Edges wrapping around
+ * a periodic domain are burnt twice, unwrapped from either endpoint, so that both sides of the seam are drawn.
+ */
+public class RiverRasterizer {
+    /**
+     * The side length of a tile, in pixels
+     */
+    public static final int TILE_SIZE = 64;
+    private static final int STRIDE = 6;
+
+    /**
+     * The minimum volume of water through an edge for it to be drawn
+     */
+    public final double drainageCutoff;
+    /**
+     * The width of a river of unit volume in erosion basis
+     */
+    public final double widthScale;
+    /**
+     * The exponent of the volume in the width of a river
+     */
+    public final double widthExponent;
+
+    // (x, y) of the origin and destination, then the half width at each
+    private final double[] segments;
+    private final int segmentCount;
+
+    /**
+     * The scan conversion of the fluvial network of an {@link EroderResults} into channel and width rasters
+     *
+     * @param eroderResults  The {@link EroderResults} whose fluvial network to rasterize
+     * @param drainageCutoff The minimum volume of water through an edge for it to be drawn
+     * @param widthScale     The width of a river of unit volume in erosion basis
+     * @param widthExponent  The exponent of the volume in the width of a river, e.g. 0.5
+     */
+    public RiverRasterizer(EroderResults eroderResults, double drainageCutoff, double widthScale, double widthExponent) {
+        this.drainageCutoff = drainageCutoff;
+        this.widthScale = widthScale;
+        this.widthExponent = widthExponent;
+
+        double[] segments = new double[2 * eroderResults.eroderEdges.size() * STRIDE];
+        int n = 0;
+        for (EroderEdge edge : eroderResults.eroderEdges) {
+            if (Math.max(edge.volumeOrigin(), edge.volumeDestination()) < drainageCutoff) continue;
+            PointD origin = edge.origin(), destination = edge.destination();
+            if (eroderResults.eroderGeometry.wraps(origin, destination)
+                    && eroderResults.eroderGeometry instanceof EroderGeometryToroidal torus) {
+                // drawn straight, a wrapping edge would cut across the domain, so it is drawn across each seam instead
+                PointD unwrapped = torus.unwrap(origin, destination);
+                put(segments, n++, origin, unwrapped, edge);
+                put(segments, n++, origin.subtract(unwrapped.subtract(destination)), destination, edge);
+            } else {
+                put(segments, n++, origin, destination, edge);
+            }
+        }
+        this.segments = Arrays.copyOf(segments, n * STRIDE);
+        this.segmentCount = n;
+    }
+
+    /**
+     * The number of segments drawn for the edges draining at least {@link #drainageCutoff}, two for every wrapping
+     * edge
+     *
+     * @return The number of drawn segments
+     */
+    public int segmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Rasterizes the fluvial network over a grid in parallel tiles, sampled at pixel centers
+     *
+     * @param bounds   The rectangle covered by the grid
+     * @param width    The number of pixels on the x-axis
+     * @param height   The number of pixels on the y-axis
+     * @param channel  The array receiving the coverage of every pixel by a river between 0 and 1 in row-major order,
+     *                 or null
+     * @param widths   The array receiving the width in erosion basis of the widest river covering every pixel in
+     *                 row-major order, 0 where there is none, or null
+     */
+    public void rasterize(RectD bounds, int width, int height, float[] channel, float[] widths) {
+        if (channel != null && (long) width * height > channel.length || widths != null && (long) width * height > widths.length)
+            throw new IllegalArgumentException("channel and widths must hold width * height samples");
+        double pixelWidth = bounds.width() / width, pixelHeight = bounds.height() / height;
+        int tileColumns = (width + TILE_SIZE - 1) / TILE_SIZE, tileRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+        // bin every segment into the tiles its bounding box, widened by its half width and a pixel, overlaps
+        int[] binStart = new int[tileColumns * tileRows + 1];
+        int[] tiles = new int[4];
+        for (int s = 0; s < segmentCount; s++) {
+            if (!tileBounds(s, bounds, pixelWidth, pixelHeight, width, height, tiles)) continue;
+            for (int ty = tiles[1]; ty <= tiles[3]; ty++) for (int tx = tiles[0]; tx <= tiles[2]; tx++)
+                binStart[ty * tileColumns + tx + 1]++;
+        }
+        for (int tile = 0; tile < tileColumns * tileRows; tile++)
+            binStart[tile + 1] += binStart[tile];
+        int[] cursor = Arrays.copyOf(binStart, tileColumns * tileRows);
+        int[] bins = new int[binStart[tileColumns * tileRows]];
+        for (int s = 0; s < segmentCount; s++) {
+            if (!tileBounds(s, bounds, pixelWidth, pixelHeight, width, height, tiles)) continue;
+            for (int ty = tiles[1]; ty <= tiles[3]; ty++) for (int tx = tiles[0]; tx <= tiles[2]; tx++)
+                bins[cursor[ty * tileColumns + tx]++] = s;
+        }
+
+        IntStream.range(0, tileColumns * tileRows).parallel().forEach(tile -> {
+            int fromColumn = (tile % tileColumns) * TILE_SIZE, toColumn = Math.min(width, fromColumn + TILE_SIZE);
+            int fromRow = (tile / tileColumns) * TILE_SIZE, toRow = Math.min(height, fromRow + TILE_SIZE);
+            for (int row = fromRow; row < toRow; row++) {
+                if (channel != null) Arrays.fill(channel, row * width + fromColumn, row * width + toColumn, 0);
+                if (widths != null) Arrays.fill(widths, row * width + fromColumn, row * width + toColumn, 0);
+            }
+            for (int b = binStart[tile]; b < binStart[tile + 1]; b++)
+                rasterize(bins[b], bounds, pixelWidth, pixelHeight, width, channel, widths,
+                        fromColumn, fromRow, toColumn, toRow);
+        });
+    }
+
+    /*
+     * Draws a segment as a capsule clipped to a tile, the coverage of a pixel being approximated from the distance
+     * between its center and the segment, and thin rivers fading in proportion to their width
+     */
+    private void rasterize(int segment, RectD bounds, double pixelWidth, double pixelHeight, int width,
+                           float[] channel, float[] widths, int fromColumn, int fromRow, int toColumn, int toRow) {
+        int i = segment * STRIDE;
+        double ax = segments[i], ay = segments[i + 1], bx = segments[i + 2], by = segments[i + 3];
+        double halfWidthA = segments[i + 4], halfWidthB = segments[i + 5];
+        double pixelSize = Math.max(pixelWidth, pixelHeight);
+        double reach = Math.max(halfWidthA, halfWidthB) + pixelSize;
+
+        int clipFromColumn = Math.max(fromColumn, (int) Math.floor((Math.min(ax, bx) - reach - bounds.min.x) / pixelWidth));
+        int clipToColumn = Math.min(toColumn - 1, (int) Math.floor((Math.max(ax, bx) + reach - bounds.min.x) / pixelWidth));
+        int clipFromRow = Math.max(fromRow, (int) Math.floor((Math.min(ay, by) - reach - bounds.min.y) / pixelHeight));
+        int clipToRow = Math.min(toRow - 1, (int) Math.floor((Math.max(ay, by) + reach - bounds.min.y) / pixelHeight));
+
+        double abx = bx - ax, aby = by - ay;
+        double lengthSquared = abx * abx + aby * aby;
+        for (int row = clipFromRow; row <= clipToRow; row++) {
+            double py = bounds.min.y + (row + 0.5) * pixelHeight;
+            for (int column = clipFromColumn; column <= clipToColumn; column++) {
+                double px = bounds.min.x + (column + 0.5) * pixelWidth;
+                double t = lengthSquared == 0 ? 0 :
+                        Math.max(0, Math.min(1, ((px - ax) * abx + (py - ay) * aby) / lengthSquared));
+                double dx = ax + t * abx - px, dy = ay + t * aby - py;
+                double distance = Math.sqrt(dx * dx + dy * dy);
+                double halfWidth = halfWidthA + t * (halfWidthB - halfWidthA);
+                double coverage = Math.max(0, Math.min(1, (Math.max(halfWidth, pixelSize / 2) - distance) / pixelSize + 0.5))
+                        * Math.min(1, 2 * halfWidth / pixelSize);
+                if (coverage <= 0) continue;
+                int pixel = row * width + column;
+                if (channel != null && coverage > channel[pixel]) channel[pixel] = (float) coverage;
+                if (widths != null && 2 * halfWidth > widths[pixel]) widths[pixel] = (float) (2 * halfWidth);
+            }
+        }
+    }
+
+    // the range of tiles overlapped by a segment's widened bounding box, false if it lies outside the grid
+    private boolean tileBounds(int segment, RectD bounds, double pixelWidth, double pixelHeight,
+                               int width, int height, int[] out) {
+        int i = segment * STRIDE;
+        double reach = Math.max(segments[i + 4], segments[i + 5]) + Math.max(pixelWidth, pixelHeight);
+        int fromColumn = Math.max(0, (int) Math.floor((Math.min(segments[i], segments[i + 2]) - reach - bounds.min.x) / pixelWidth));
+        int toColumn = Math.min(width - 1, (int) Math.floor((Math.max(segments[i], segments[i + 2]) + reach - bounds.min.x) / pixelWidth));
+        int fromRow = Math.max(0, (int) Math.floor((Math.min(segments[i + 1], segments[i + 3]) - reach - bounds.min.y) / pixelHeight));
+        int toRow = Math.min(height - 1, (int) Math.floor((Math.max(segments[i + 1], segments[i + 3]) + reach - bounds.min.y) / pixelHeight));
+        if (fromColumn > toColumn || fromRow > toRow) return false;
+        out[0] = fromColumn / TILE_SIZE;
+        out[1] = fromRow / TILE_SIZE;
+        out[2] = toColumn / TILE_SIZE;
+        out[3] = toRow / TILE_SIZE;
+        return true;
+    }
+
+    private void put(double[] segments, int segment, PointD origin, PointD destination, EroderEdge edge) {
+        int i = segment * STRIDE;
+        segments[i] = origin.x;
+        segments[i + 1] = origin.y;
+        segments[i + 2] = destination.x;
+        segments[i + 3] = destination.y;
+        segments[i + 4] = width(edge.volumeOrigin()) / 2;
+        segments[i + 5] = width(edge.volumeDestination()) / 2;
+    }
+
+    private double width(double volume) {
+        return widthScale * Math.pow(volume, widthExponent);
+    }
+}
@@ -6,13 +6,15 @@ import org.kynosarges.tektosyne.geometry.PointD;
 import org.kynosarges.tektosyne.geometry.PolygonLocation;
 import org.kynosarges.tektosyne.geometry.RectD;
 
-import java.util.HashSet;
+import java.util.*;
+import java.util.stream.IntStream;
 
 /**
- * A simple and fast grid geometry
+ * A simple and fast grid geometry, built in parallel bands of columns
  */
 public class EroderGeometryGrid extends EroderGeometry {
     private static final double EPSILON = 1E-12;
+    private static final int BAND_WIDTH = 64;
 
     /**
      * A simple and fast grid geometry
@@ -23,28 +25,60 @@ public class EroderGeometryGrid extends EroderGeometry {
     public EroderGeometryGrid(PointD[] boundingPolygon, double minDistance) {
         super(boundingPolygon, minDistance + EPSILON);
         final RectD bounds = RectD.circumscribe(boundingPolygon);
-        minDistance = minDistance + EPSILON;
-        int horizontalCount = (int) (bounds.width() / minDistance);
-        int verticalCount = (int) (bounds.height() / minDistance);
-        double horizontalMargin = (bounds.width() - horizontalCount * minDistance) / 2;
-        double verticalMargin = (bounds.height() - verticalCount * minDistance) / 2;
-        for (int x = 0; x <= horizontalCount; x++) for (int y = 0; y <= verticalCount; y++) {
-            PointD node = new PointD(x * minDistance + horizontalMargin, y * minDistance + verticalMargin).add(bounds.min);
-            if (GeoUtils.pointInPolygon(node, boundingPolygon) == PolygonLocation.OUTSIDE) continue;
-            graph.putIfAbsent(node, new HashSet<>(4));
+        final double distance = minDistance + EPSILON;
+        int horizontalCount = (int) (bounds.width() / distance);
+        int verticalCount = (int) (bounds.height() / distance);
+        double horizontalMargin = (bounds.width() - horizontalCount * distance) / 2;
+        double verticalMargin = (bounds.height() - verticalCount * distance) / 2;
+        int columns = horizontalCount + 1;
+        int rows = verticalCount + 1;
+
+        // nodes outside the lattice lie outside the bounding rectangle, hence outside the polygon
+        PointD[] nodes = new PointD[columns * rows];
+        IntStream.range(0, columns).parallel().forEach(x -> {
+            for (int y = 0; y < rows; y++) {
+                PointD node = new PointD(x * distance + horizontalMargin, y * distance + verticalMargin).add(bounds.min);
+                if (GeoUtils.pointInPolygon(node, boundingPolygon) != PolygonLocation.OUTSIDE)
+                    nodes[x * rows + y] = node;
+            }
+        });
+
+        int bandCount = (columns + BAND_WIDTH - 1) / BAND_WIDTH;
+        List<Band> bands = IntStream.range(0, bandCount).parallel()
+                .mapToObj(band -> buildBand(nodes, columns, rows, band * BAND_WIDTH,
+                        Math.min(columns, (band + 1) * BAND_WIDTH)))
+                .toList();
+
+        double area = distance * distance;
+        for (Band band : bands) {
+            graph.putAll(band.graph());
+            boundary.addAll(band.boundary());
+            for (PointD node : band.graph().keySet())
+                areaMap.put(node, area);
+        }
+    }
+
+    private static Band buildBand(PointD[] nodes, int columns, int rows, int fromColumn, int toColumn) {
+        Map<PointD, Set<PointD>> graph = new HashMap<>();
+        Set<PointD> boundary = new HashSet<>();
+        for (int x = fromColumn; x < toColumn; x++) for (int y = 0; y < rows; y++) {
+            PointD node = nodes[x * rows + y];
+            if (node == null) continue;
+            Set<PointD> neighbors = new HashSet<>(8);
             for (int dx = -1; dx <= 1; dx++) for (int dy = -1; dy <= 1; dy++) {
                 if (dx == 0 && dy == 0) continue;
                 if (dx * dy == 1) continue;
-                PointD neighbor = new PointD((x + dx) * minDistance + horizontalMargin, (y + dy) * minDistance + verticalMargin).add(bounds.min);
-                if (GeoUtils.pointInPolygon(neighbor, boundingPolygon) == PolygonLocation.OUTSIDE) continue;
-                graph.get(node).add(neighbor);
-                graph.putIfAbsent(neighbor, new HashSet<>(4));
-                graph.get(neighbor).add(node);
+                int nx = x + dx, ny = y + dy;
+                if (nx < 0 || nx >= columns || ny < 0 || ny >= rows) continue;
+                PointD neighbor = nodes[nx * rows + ny];
+                if (neighbor != null) neighbors.add(neighbor);
             }
+            graph.put(node, neighbors);
+            if (neighbors.size() < 6) boundary.add(node);
         }
+        return new Band(graph, boundary);
+    }
 
-        for (PointD node : this.graph.keySet()) {
-            areaMap.put(node, minDistance * minDistance);
-        }
+    private record Band(Map<PointD, Set<PointD>> graph, Set<PointD> boundary) {
     }
 }
@@ -0,0 +1,165 @@
+package com.github.keyboardcat1.erosio.geometries;
+
+import com.github.keyboardcat1.erosio.EroderGeometry;
+import org.kynosarges.tektosyne.geometry.GeoUtils;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.PolygonLocation;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A natural-looking geometry based on a jittered lattice, reproducible over any sub-region <br/>
+ * Every lattice cell holds exactly one node, displaced by a hash of its cell coordinates and the seed, and every
+ * lattice quad is split along its Delaunay diagonal. Nodes and neighbors therefore only depend on their own cells,
+ * so geometries over overlapping regions agree wherever they overlap.
+ */
+public class EroderGeometryJittered extends EroderGeometry {
+    /**
+     * The default jitter, leaving a small margin below the maximum of 0.5
+     */
+    public static final double DEFAULT_JITTER = 0.45;
+
+    /**
+     * The dimension of a lattice cell
+     */
+    public final double inverseSampleDensity;
+    /**
+     * The fraction of a lattice cell over which a node can be displaced, between 0 and 0.5
+     */
+    public final double jitter;
+    /**
+     * The seed randomizing the sample points
+     */
+    public final long seed;
+
+    /**
+     * A natural-looking geometry based on a jittered lattice, reproducible over any sub-region
+     *
+     * @param boundingPolygon      The bounding coordinates of a polygonal region
+     * @param inverseSampleDensity The dimension of a lattice cell
+     * @param seed                 A seed randomizing the sample points
+     */
+    public EroderGeometryJittered(PointD[] boundingPolygon, double inverseSampleDensity, long seed) {
+        this(boundingPolygon, inverseSampleDensity, DEFAULT_JITTER, seed);
+    }
+
+    /**
+     * A natural-looking geometry based on a jittered lattice, reproducible over any sub-region
+     *
+     * @param boundingPolygon      The bounding coordinates of a polygonal region
+     * @param inverseSampleDensity The dimension of a lattice cell
+     * @param jitter               The fraction of a lattice cell over which a node can be displaced, between 0 and 0.5
+     * @param seed                 A seed randomizing the sample points
+     */
+    public EroderGeometryJittered(PointD[] boundingPolygon, double inverseSampleDensity, double jitter, long seed) {
+        super(boundingPolygon, inverseSampleDensity * (1 - jitter));
+        if (jitter < 0 || jitter > 0.5)
+            throw new IllegalArgumentException("jitter must lie between 0 and 0.5, got " + jitter);
+        this.inverseSampleDensity = inverseSampleDensity;
+        this.jitter = jitter;
+        this.seed = seed;
+
+        RectD bounds = RectD.circumscribe(boundingPolygon);
+        int minI = cellOf(bounds.min.x) - 1;
+        int minJ = cellOf(bounds.min.y) - 1;
+        int countI = cellOf(bounds.max.x) - minI + 2;
+        int countJ = cellOf(bounds.max.y) - minJ + 2;
+
+        PointD[] nodes = new PointD[countI * countJ];
+        for (int i = 0; i < countI; i++) for (int j = 0; j < countJ; j++) {
+            PointD node = latticeNode(minI + i, minJ + j);
+            if (GeoUtils.pointInPolygon(node, boundingPolygon) != PolygonLocation.OUTSIDE)
+                nodes[i * countJ + j] = node;
+        }
+
+        int[] offsets = new int[2 * 8];
+        for (int i = 0; i < countI; i++) for (int j = 0; j < countJ; j++) {
+            PointD node = nodes[i * countJ + j];
+            if (node == null) continue;
+            Set<PointD> neighbors = new HashSet<>(6);
+            int count = latticeNeighbors(minI + i, minJ + j, offsets);
+            for (int n = 0; n < count; n++) {
+                int ni = i + offsets[2 * n];
+                int nj = j + offsets[2 * n + 1];
+                if (ni < 0 || ni >= countI || nj < 0 || nj >= countJ) continue;
+                PointD neighbor = nodes[ni * countJ + nj];
+                if (neighbor != null) neighbors.add(neighbor);
+            }
+            graph.put(node, neighbors);
+            areaMap.put(node, inverseSampleDensity * inverseSampleDensity);
+            if (neighbors.size() < count) boundary.add(node);
+        }
+    }
+
+    /**
+     * Computes the node of a lattice cell, whether or not it lies within the bounding polygon
+     *
+     * @param i The index of the cell on the x-axis
+     * @param j The index of the cell on the y-axis
+     * @return The node of the cell
+     */
+    public PointD latticeNode(int i, int j) {
+        long hash = mix(mix(seed + i * 0x9E3779B97F4A7C15L) + j);
+        double u = (hash >>> 11) * 0x1.0p-53;
+        double v = (mix(hash) >>> 11) * 0x1.0p-53;
+        return new PointD((i + 0.5 + jitter * (u - 0.5)) * inverseSampleDensity,
+                (j + 0.5 + jitter * (v - 0.5)) * inverseSampleDensity);
+    }
+
+    /**
+     * Finds the lattice offsets of the neighbors of a cell's node in constant time
+     *
+     * @param i   The index of the cell on the x-axis
+     * @param j   The index of the cell on the y-axis
+     * @param out An array of at least 16 elements receiving (di, dj) pairs
+     * @return The number of neighbors written, between 4 and 8
+     */
+    public int latticeNeighbors(int i, int j, int[] out) {
+        int count = 0;
+        count = put(out, count, 1, 0);
+        count = put(out, count, 0, 1);
+        count = put(out, count, -1, 0);
+        count = put(out, count, 0, -1);
+        if (!isFlipped(i, j)) count = put(out, count, 1, 1);
+        if (isFlipped(i - 1, j)) count = put(out, count, -1, 1);
+        if (!isFlipped(i - 1, j - 1)) count = put(out, count, -1, -1);
+        if (isFlipped(i, j - 1)) count = put(out, count, 1, -1);
+        return count;
+    }
+
+    private static int put(int[] out, int count, int di, int dj) {
+        out[2 * count] = di;
+        out[2 * count + 1] = dj;
+        return count + 1;
+    }
+
+    /**
+     * Whether the quad whose lower left cell is (i, j) is split along its (i+1, j)-(i, j+1) diagonal
+     * rather than its (i, j)-(i+1, j+1) diagonal, following the Delaunay criterion
+     */
+    private boolean isFlipped(int i, int j) {
+        PointD a = latticeNode(i, j);
+        PointD b = latticeNode(i + 1, j);
+        PointD c = latticeNode(i + 1, j + 1);
+        PointD d = latticeNode(i, j + 1);
+        double adx = a.x - d.x, ady = a.y - d.y;
+        double bdx = b.x - d.x, bdy = b.y - d.y;
+        double cdx = c.x - d.x, cdy = c.y - d.y;
+        double det = (adx * adx + ady * ady) * (bdx * cdy - cdx * bdy)
+                - (bdx * bdx + bdy * bdy) * (adx * cdy - cdx * ady)
+                + (cdx * cdx + cdy * cdy) * (adx * bdy - bdx * ady);
+        return det > 0;
+    }
+
+    private int cellOf(double coordinate) {
+        return (int) Math.floor(coordinate / inverseSampleDensity);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -53,6 +53,10 @@ public class EroderGeometryNatural extends EroderGeometry {
             graph.get(A).add(B);
             graph.putIfAbsent(B, new HashSet<>());
             graph.get(B).add(A);
+            if (edge.face().outerEdge() == null) {
+                boundary.add(A);
+                boundary.add(B);
+            }
         }
 
         for (int i = 0; i < voronoiResults.generatorSites.length; i++)
@@ -0,0 +1,93 @@
+package com.github.keyboardcat1.erosio.geometries;
+
+import com.github.keyboardcat1.erosio.EroderGeometry;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+/**
+ * A geometry with periodic boundaries, whose eroded heightmap tiles seamlessly <br/>
+ * Nodes on opposite sides of the rectangle are neighbors, so the geometry has no boundary and
+ * {@link com.github.keyboardcat1.erosio.Eroder} needs drains that are not on the boundary.
+ */
+public abstract class EroderGeometryToroidal extends EroderGeometry {
+    /**
+     * The rectangle repeated on both axes
+     */
+    public final RectD period;
+
+    /**
+     * A geometry with periodic boundaries, whose eroded heightmap tiles seamlessly
+     *
+     * @param period      The rectangle repeated on both axes
+     * @param minDistance The minimum distance between two nodes, setting the resolution
+     */
+    public EroderGeometryToroidal(RectD period, double minDistance) {
+        super(RectDtoPolygon(period), minDistance);
+        this.period = period;
+    }
+
+    @Override
+    public double distance(PointD a, PointD b) {
+        double dx = wrapDelta(b.x - a.x, period.width());
+        double dy = wrapDelta(b.y - a.y, period.height());
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    @Override
+    public boolean wraps(PointD a, PointD b) {
+        return Math.abs(b.x - a.x) > period.width() / 2 || Math.abs(b.y - a.y) > period.height() / 2;
+    }
+
+    /**
+     * Maps any point of the plane to its periodic image within the repeated rectangle
+     *
+     * @param point The point to map
+     * @return The equivalent point within {@link #period}
+     */
+    public PointD wrap(PointD point) {
+        return new PointD(wrapX(point.x), wrapY(point.y));
+    }
+
+    /**
+     * Maps any X coordinate to its periodic image within the repeated rectangle
+     *
+     * @param x The X coordinate to map
+     * @return The equivalent X coordinate within {@link #period}
+     */
+    public double wrapX(double x) {
+        return wrapCoordinate(x, period.min.x, period.width());
+    }
+
+    /**
+     * Maps any Y coordinate to its periodic image within the repeated rectangle
+     *
+     * @param y The Y coordinate to map
+     * @return The equivalent Y coordinate within {@link #period}
+     */
+    public double wrapY(double y) {
+        return wrapCoordinate(y, period.min.y, period.height());
+    }
+
+    /**
+     * Finds the periodic image of a node closest to another, i.e. where the edge between them leads
+     *
+     * @param from The node the edge starts from
+     * @param to   The node the edge leads to
+     * @return The image of to closest to from
+     */
+    public PointD unwrap(PointD from, PointD to) {
+        return new PointD(from.x + wrapDelta(to.x - from.x, period.width()),
+                from.y + wrapDelta(to.y - from.y, period.height()));
+    }
+
+    static double wrapDelta(double delta, double length) {
+        return delta - length * Math.rint(delta / length);
+    }
+
+    static double wrapCoordinate(double coordinate, double min, double length) {
+        double wrapped = (coordinate - min) % length;
+        if (wrapped < 0) wrapped += length;
+        // a tiny negative remainder rounds up to the length itself
+        return (wrapped < length ? wrapped : 0) + min;
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.keyboardcat1.erosio.geometries;
+
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A simple and fast grid geometry with periodic boundaries
+ */
+public class EroderGeometryToroidalGrid extends EroderGeometryToroidal {
+    /**
+     * A simple and fast grid geometry with periodic boundaries
+     *
+     * @param period      The rectangle repeated on both axes
+     * @param minDistance The approximate distance between two nodes, adjusted so that the rectangle holds a whole
+     *                    number of nodes on each axis
+     */
+    public EroderGeometryToroidalGrid(RectD period, double minDistance) {
+        this(period, Math.max(3, (int) Math.round(period.width() / minDistance)),
+                Math.max(3, (int) Math.round(period.height() / minDistance)));
+    }
+
+    private EroderGeometryToroidalGrid(RectD period, int horizontalCount, int verticalCount) {
+        super(period, Math.min(period.width() / horizontalCount, period.height() / verticalCount));
+        double dx = period.width() / horizontalCount;
+        double dy = period.height() / verticalCount;
+
+        PointD[] nodes = new PointD[horizontalCount * verticalCount];
+        for (int x = 0; x < horizontalCount; x++) for (int y = 0; y < verticalCount; y++)
+            nodes[x * verticalCount + y] = new PointD((x + 0.5) * dx, (y + 0.5) * dy).add(period.min);
+
+        for (int x = 0; x < horizontalCount; x++) for (int y = 0; y < verticalCount; y++) {
+            Set<PointD> neighbors = new HashSet<>(6);
+            for (int ox = -1; ox <= 1; ox++) for (int oy = -1; oy <= 1; oy++) {
+                if (ox == 0 && oy == 0) continue;
+                if (ox * oy == 1) continue;
+                int nx = Math.floorMod(x + ox, horizontalCount);
+                int ny = Math.floorMod(y + oy, verticalCount);
+                neighbors.add(nodes[nx * verticalCount + ny]);
+            }
+            graph.put(nodes[x * verticalCount + y], neighbors);
+            areaMap.put(nodes[x * verticalCount + y], dx * dy);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.keyboardcat1.erosio.geometries;
+
+import org.kynosarges.tektosyne.geometry.*;
+import org.kynosarges.tektosyne.subdivision.Subdivision;
+import org.kynosarges.tektosyne.subdivision.SubdivisionEdge;
+
+import java.util.*;
+
+/**
+ * A natural-looking geometry with periodic boundaries, based on periodic Poisson disk sampling and Delaunay
+ * triangulation
+ */
+public class EroderGeometryToroidalNatural extends EroderGeometryToroidal {
+    /**
+     * The minimum distance between two nodes in the stream graph
+     */
+    public final double inverseSampleDensity;
+    /**
+     * The seed randomizing the sample points
+     */
+    public final long seed;
+
+    /**
+     * A natural-looking geometry with periodic boundaries, based on periodic Poisson disk sampling and Delaunay
+     * triangulation
+     *
+     * @param period               The rectangle repeated on both axes
+     * @param inverseSampleDensity The minimum distance between two nodes in the stream graph
+     * @param seed                 A seed randomizing the sample points
+     */
+    public EroderGeometryToroidalNatural(RectD period, double inverseSampleDensity, long seed) {
+        super(period, inverseSampleDensity);
+        this.inverseSampleDensity = inverseSampleDensity;
+        this.seed = seed;
+
+        List<PointD> samples = PeriodicPoissonDiskSampler.sample(period, inverseSampleDensity, seed);
+
+        // surround the samples with enough periodic copies for their Delaunay neighborhoods to be complete
+        double margin = 4 * inverseSampleDensity;
+        RectD extended = new RectD(period.min.x - margin, period.min.y - margin,
+                period.max.x + margin, period.max.y + margin);
+        Map<PointD, PointD> canonical = new HashMap<>(samples.size() * 2);
+        for (PointD sample : samples) for (int ox = -1; ox <= 1; ox++) for (int oy = -1; oy <= 1; oy++) {
+            PointD copy = new PointD(sample.x + ox * period.width(), sample.y + oy * period.height());
+            if (extended.contains(copy)) canonical.put(copy, sample);
+        }
+
+        VoronoiResults voronoiResults = Voronoi.findAll(canonical.keySet().toArray(new PointD[0]), extended);
+        Subdivision delaunaySubdivision = voronoiResults.toDelaunaySubdivision(true);
+
+        for (SubdivisionEdge edge : delaunaySubdivision.edges().values()) {
+            PointD A = edge.origin();
+            PointD B = edge.destination();
+            if (!period.contains(A) && !period.contains(B)) continue;
+            PointD canonicalA = canonical.get(A);
+            PointD canonicalB = canonical.get(B);
+            graph.putIfAbsent(canonicalA, new HashSet<>());
+            graph.get(canonicalA).add(canonicalB);
+            graph.putIfAbsent(canonicalB, new HashSet<>());
+            graph.get(canonicalB).add(canonicalA);
+        }
+
+        for (int i = 0; i < voronoiResults.generatorSites.length; i++) {
+            PointD site = voronoiResults.generatorSites[i];
+            if (site.equals(canonical.get(site)))
+                areaMap.put(site, Math.abs(GeoUtils.polygonArea(voronoiResults.voronoiRegions()[i])));
+        }
+    }
+
+    private static class PeriodicPoissonDiskSampler {
+        public static List<PointD> sample(RectD period, double r, long seed) {
+            return sample(period, r, 30, seed);
+        }
+
+        public static List<PointD> sample(RectD period, double r, int k, long seed) {
+            Random random = new Random(seed);
+            double width = period.width();
+            double height = period.height();
+            int cols = (int) Math.ceil(width / (r / Math.sqrt(2)));
+            int rows = (int) Math.ceil(height / (r / Math.sqrt(2)));
+            double cellWidth = width / cols;
+            double cellHeight = height / rows;
+            int reachX = (int) Math.ceil(r / cellWidth);
+            int reachY = (int) Math.ceil(r / cellHeight);
+
+            PointD[] grid = new PointD[cols * rows];
+            List<PointD> points = new ArrayList<>();
+            List<PointD> active = new ArrayList<>();
+            PointD x_0 = new PointD(random.nextDouble(period.min.x, period.max.x), random.nextDouble(period.min.y, period.max.y));
+            grid[cellIndex(x_0, period, cellWidth, cellHeight, cols, rows)] = x_0;
+            points.add(x_0);
+            active.add(x_0);
+
+            while (!active.isEmpty()) {
+                int randomIndex = random.nextInt(active.size());
+                PointD x_i = active.get(randomIndex);
+                boolean found = false;
+                for (int n = 0; n < k; n++) {
+                    double randomAngle = random.nextDouble(2 * Math.PI);
+                    double randomRadius = random.nextDouble(r, 2 * r);
+                    PointD sample = new PointD(
+                            wrapCoordinate(x_i.x + Math.cos(randomAngle) * randomRadius, period.min.x, width),
+                            wrapCoordinate(x_i.y + Math.sin(randomAngle) * randomRadius, period.min.y, height));
+                    int index = cellIndex(sample, period, cellWidth, cellHeight, cols, rows);
+                    if (grid[index] != null) continue;
+                    if (hasNeighbours(sample, grid, r, period, cellWidth, cellHeight, cols, rows, reachX, reachY))
+                        continue;
+                    found = true;
+                    grid[index] = sample;
+                    points.add(sample);
+                    active.add(sample);
+                }
+                if (!found) active.remove(randomIndex);
+            }
+            return points;
+        }
+
+        private static int cellIndex(PointD point, RectD period, double cellWidth, double cellHeight, int cols, int rows) {
+            int col = Math.min((int) ((point.x - period.min.x) / cellWidth), cols - 1);
+            int row = Math.min((int) ((point.y - period.min.y) / cellHeight), rows - 1);
+            return col * rows + row;
+        }
+
+        private static boolean hasNeighbours(PointD point, PointD[] grid, double r, RectD period,
+                                             double cellWidth, double cellHeight, int cols, int rows,
+                                             int reachX, int reachY) {
+            int col = Math.min((int) ((point.x - period.min.x) / cellWidth), cols - 1);
+            int row = Math.min((int) ((point.y - period.min.y) / cellHeight), rows - 1);
+            for (int x = -reachX; x <= reachX; x++) {
+                for (int y = -reachY; y <= reachY; y++) {
+                    PointD neighbour = grid[Math.floorMod(col + x, cols) * rows + Math.floorMod(row + y, rows)];
+                    if (neighbour == null) continue;
+                    double dx = wrapDelta(neighbour.x - point.x, period.width());
+                    double dy = wrapDelta(neighbour.y - point.y, period.height());
+                    if (dx * dx + dy * dy < r * r) return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Successive 2x reductions of the heights pre-computed by an {@link InterpolatorCPURasterizer} <br/>
+ * Level 0 is the base raster, and every pixel of level k + 1 holds the minimum, maximum and mean of the up to four
+ * pixels of level k it covers, ignoring uncovered pixels. The last level is a single pixel.
+ */
+public final class HeightmapPyramid {
+    /**
+     * A pixel's dimension in erosion basis at level 0
+     */
+    public final double pixelSize;
+
+    private final double minX;
+    private final double minY;
+    private final Level[] levels;
+
+    /**
+     * Successive 2x reductions of the heights pre-computed by an {@link InterpolatorCPURasterizer}, built in
+     * parallel rows
+     *
+     * @param rasterizer The {@link InterpolatorCPURasterizer} whose heights to reduce
+     */
+    public HeightmapPyramid(InterpolatorCPURasterizer rasterizer) {
+        this.pixelSize = rasterizer.pixelSize;
+        this.minX = rasterizer.minX;
+        this.minY = rasterizer.minY;
+
+        List<Level> levels = new ArrayList<>();
+        Level level = new Level(rasterizer.columns, rasterizer.rows,
+                rasterizer.grid, rasterizer.grid, rasterizer.grid, null);
+        levels.add(level);
+        while (level.columns > 1 || level.rows > 1) {
+            level = reduce(level);
+            levels.add(level);
+        }
+        this.levels = levels.toArray(Level[]::new);
+    }
+
+    /**
+     * The number of levels, from the base raster to a single pixel
+     *
+     * @return The number of levels
+     */
+    public int levelCount() {
+        return levels.length;
+    }
+
+    /**
+     * The number of pixels on the x-axis at a level
+     *
+     * @param level The level
+     * @return The number of pixels on the x-axis
+     */
+    public int columns(int level) {
+        return levels[level].columns;
+    }
+
+    /**
+     * The number of pixels on the y-axis at a level
+     *
+     * @param level The level
+     * @return The number of pixels on the y-axis
+     */
+    public int rows(int level) {
+        return levels[level].rows;
+    }
+
+    /**
+     * A pixel's dimension in erosion basis at a level
+     *
+     * @param level The level
+     * @return The pixel size at that level
+     */
+    public double pixelSize(int level) {
+        return Math.scalb(pixelSize, level);
+    }
+
+    /**
+     * Finds the coarsest level whose pixels are no larger than a given size
+     *
+     * @param pixelSize The largest acceptable pixel size
+     * @return The level of detail for that pixel size
+     */
+    public int levelOf(double pixelSize) {
+        int level = Math.getExponent(pixelSize / this.pixelSize);
+        return Math.max(0, Math.min(levels.length - 1, level));
+    }
+
+    /**
+     * The mean height of the pixel containing a point at a level
+     *
+     * @param level The level
+     * @param x     The X coordinate of the point
+     * @param y     The Y coordinate of that point
+     * @return The mean height, {@link Double#NaN} if the pixel is not covered
+     */
+    public double mean(int level, double x, double y) {
+        return get(levels[level].mean, level, x, y);
+    }
+
+    /**
+     * The minimum height of the pixel containing a point at a level
+     *
+     * @param level The level
+     * @param x     The X coordinate of the point
+     * @param y     The Y coordinate of that point
+     * @return The minimum height, {@link Double#NaN} if the pixel is not covered
+     */
+    public double min(int level, double x, double y) {
+        return get(levels[level].min, level, x, y);
+    }
+
+    /**
+     * The maximum height of the pixel containing a point at a level
+     *
+     * @param level The level
+     * @param x     The X coordinate of the point
+     * @param y     The Y coordinate of that point
+     * @return The maximum height, {@link Double#NaN} if the pixel is not covered
+     */
+    public double max(int level, double x, double y) {
+        return get(levels[level].max, level, x, y);
+    }
+
+    /**
+     * Bounds the heights within a rectangle from at most four pixels of the level at which it spans a single pixel
+     * on each axis <br/>
+     * The range is conservative: it may include heights of pixels that only partially overlap the rectangle.
+     *
+     * @param bounds The rectangle
+     * @return The minimum and maximum heights, both {@link Double#NaN} if the rectangle is not covered
+     */
+    public Range range(RectD bounds) {
+        double extent = Math.max(bounds.width(), bounds.height()) / pixelSize;
+        int level = extent <= 1 ? 0 : Math.min(levels.length - 1, Math.getExponent(extent - Math.ulp(extent)) + 1);
+        Level l = levels[level];
+        double size = pixelSize(level);
+        int fromColumn = Math.max(0, (int) Math.floor((bounds.min.x - minX) / size));
+        int toColumn = Math.min(l.columns - 1, (int) Math.floor((bounds.max.x - minX) / size));
+        int fromRow = Math.max(0, (int) Math.floor((bounds.min.y - minY) / size));
+        int toRow = Math.min(l.rows - 1, (int) Math.floor((bounds.max.y - minY) / size));
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (int row = fromRow; row <= toRow; row++) for (int column = fromColumn; column <= toColumn; column++) {
+            int i = row * l.columns + column;
+            if (Double.isNaN(l.min[i])) continue;
+            min = Math.min(min, l.min[i]);
+            max = Math.max(max, l.max[i]);
+        }
+        return min > max ? new Range(Double.NaN, Double.NaN) : new Range(min, max);
+    }
+
+    private double get(double[] values, int level, double x, double y) {
+        Level l = levels[level];
+        double size = pixelSize(level);
+        int column = (int) Math.floor((x - minX) / size);
+        int row = (int) Math.floor((y - minY) / size);
+        if (column < 0 || row < 0 || column >= l.columns || row >= l.rows) return Double.NaN;
+        return values[row * l.columns + column];
+    }
+
+    private static Level reduce(Level fine) {
+        int columns = (fine.columns + 1) / 2, rows = (fine.rows + 1) / 2;
+        Level coarse = new Level(columns, rows, new double[columns * rows], new double[columns * rows],
+                new double[columns * rows], new int[columns * rows]);
+        IntStream.range(0, rows).parallel().forEach(row -> {
+            for (int column = 0; column < columns; column++) {
+                double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, sum = 0;
+                int count = 0;
+                for (int r = 2 * row; r < Math.min(fine.rows, 2 * row + 2); r++)
+                    for (int c = 2 * column; c < Math.min(fine.columns, 2 * column + 2); c++) {
+                        int i = r * fine.columns + c;
+                        int n = fine.count == null ? (Double.isNaN(fine.mean[i]) ? 0 : 1) : fine.count[i];
+                        if (n == 0) continue;
+                        min = Math.min(min, fine.min[i]);
+                        max = Math.max(max, fine.max[i]);
+                        sum += fine.mean[i] * n;
+                        count += n;
+                    }
+                int i = row * columns + column;
+                coarse.count[i] = count;
+                coarse.min[i] = count == 0 ? Double.NaN : min;
+                coarse.max[i] = count == 0 ? Double.NaN : max;
+                coarse.mean[i] = count == 0 ? Double.NaN : sum / count;
+            }
+        });
+        return coarse;
+    }
+
+    /**
+     * A range of heights
+     *
+     * @param min The minimum height
+     * @param max The maximum height
+     */
+    public record Range(double min, double max) {
+    }
+
+    // count is the number of covered base pixels behind every pixel, null at level 0
+    private record Level(int columns, int rows, double[] min, double[] max, double[] mean, int[] count) {
+    }
+}
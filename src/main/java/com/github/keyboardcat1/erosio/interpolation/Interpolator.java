@@ -1,12 +1,22 @@
 package com.github.keyboardcat1.erosio.interpolation;
 
 import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryToroidal;
 import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.stream.IntStream;
 
 /**
  * The base interpolation class
  */
 public abstract class Interpolator {
+    private static final double DEFAULT_GRADIENT_STEP = 1E-3;
+    // a row of samples per worker thread for sampleChunk
+    private static final ThreadLocal<double[]> CHUNK_ROW = ThreadLocal.withInitial(() -> new double[16]);
+
+    private final double gradientStep;
+    private final EroderGeometryToroidal torus;
 
     /**
      * The base interpolation class
@@ -14,6 +24,16 @@ public abstract class Interpolator {
      * @param eroderResults The {@link EroderResults} to interpolate
      */
     public Interpolator(EroderResults eroderResults) {
+        this.gradientStep = eroderResults.eroderGeometry.minDistance * DEFAULT_GRADIENT_STEP;
+        this.torus = eroderResults.eroderGeometry instanceof EroderGeometryToroidal torus ? torus : null;
+    }
+
+    /**
+     * The base interpolation class, for interpolators that are not backed by a single {@link EroderResults}
+     */
+    protected Interpolator() {
+        this.gradientStep = DEFAULT_GRADIENT_STEP;
+        this.torus = null;
     }
 
     /**
@@ -34,4 +54,278 @@ public abstract class Interpolator {
      * @return The interpolated height at the point
      */
     public abstract double interpolate(PointD point);
+
+    /**
+     * Interpolates the height of a point without throwing outside the interpolated area
+     *
+     * @param x         The X coordinate of the point
+     * @param y         The Y coordinate of that point
+     * @param fillValue The height returned if the point is not covered, e.g. {@link Double#NaN}
+     * @return The interpolated height at the point, or fillValue if it is not covered
+     */
+    public double interpolate(double x, double y, double fillValue) {
+        return covers(x, y) ? interpolate(x, y) : fillValue;
+    }
+
+    /**
+     * Whether heights can be interpolated at a point, i.e. whether it lies within the convex hull for mesh-based
+     * interpolators
+     *
+     * @param x The X coordinate of the point
+     * @param y The Y coordinate of that point
+     * @return true if the point is covered
+     */
+    public boolean covers(double x, double y) {
+        return true;
+    }
+
+    /**
+     * Computes in parallel rows which points of a grid are covered, sampled at pixel centers
+     *
+     * @param bounds The rectangle covered by the grid
+     * @param width  The number of samples on the x-axis
+     * @param height The number of samples on the y-axis
+     * @param out    The array receiving the coverage in row-major order
+     * @see #covers(double, double)
+     */
+    public void coverageGrid(RectD bounds, int width, int height, boolean[] out) {
+        if ((long) width * height > out.length)
+            throw new IllegalArgumentException("out must hold width * height samples");
+        double stepX = bounds.width() / width;
+        double stepY = bounds.height() / height;
+        IntStream.range(0, height).parallel().forEach(row -> {
+            double y = bounds.min.y + (row + 0.5) * stepY;
+            for (int i = 0; i < width; i++)
+                out[row * width + i] = covers(bounds.min.x + (i + 0.5) * stepX, y);
+        });
+    }
+
+    /**
+     * Interpolates the heights of many points in parallel
+     *
+     * @param xs  The X coordinates of the points
+     * @param ys  The Y coordinates of the points
+     * @param out The array receiving the interpolated height at every point
+     */
+    public void interpolate(double[] xs, double[] ys, double[] out) {
+        if (xs.length != ys.length || xs.length > out.length)
+            throw new IllegalArgumentException("xs, ys and out must hold as many points");
+        IntStream.range(0, xs.length).parallel().forEach(i -> out[i] = interpolate(xs[i], ys[i]));
+    }
+
+    /**
+     * Interpolates the heights of a grid of points in parallel rows, sampled at pixel centers <br/>
+     * Points that are not covered receive {@link Double#NaN} rather than throwing
+     *
+     * @param bounds The rectangle covered by the grid
+     * @param width  The number of samples on the x-axis
+     * @param height The number of samples on the y-axis
+     * @param out    The array receiving the interpolated heights in row-major order
+     */
+    public void sampleGrid(RectD bounds, int width, int height, double[] out) {
+        if ((long) width * height > out.length)
+            throw new IllegalArgumentException("out must hold width * height samples");
+        double stepX = bounds.width() / width;
+        double stepY = bounds.height() / height;
+        IntStream.range(0, height).parallel().forEach(row -> sampleRow(
+                bounds.min.y + (row + 0.5) * stepY, bounds.min.x + 0.5 * stepX, stepX, out, row * width, width));
+    }
+
+    /**
+     * Interpolates the heights of a grid of points in parallel rows, sampled at pixel centers <br/>
+     * Points that are not covered receive {@link Double#NaN} rather than throwing
+     *
+     * @param bounds The rectangle covered by the grid
+     * @param width  The number of samples on the x-axis
+     * @param height The number of samples on the y-axis
+     * @param out    The array receiving the interpolated heights in row-major order
+     */
+    public void sampleGrid(RectD bounds, int width, int height, float[] out) {
+        if ((long) width * height > out.length)
+            throw new IllegalArgumentException("out must hold width * height samples");
+        double stepX = bounds.width() / width;
+        double stepY = bounds.height() / height;
+        IntStream.range(0, height).parallel().forEach(row -> {
+            double[] samples = new double[width];
+            sampleRow(bounds.min.y + (row + 0.5) * stepY, bounds.min.x + 0.5 * stepX, stepX, samples, 0, width);
+            for (int i = 0; i < width; i++)
+                out[row * width + i] = (float) samples[i];
+        });
+    }
+
+    /**
+     * Interpolates the heights of a square chunk of blocks on the calling thread, sampled at the integer block
+     * coordinates, reusing the interpolator's scanline coherence along every row and a row buffer per thread <br/>
+     * Safe to call concurrently from many worker threads. Points that are not covered receive {@link Float#NaN}
+     * rather than throwing
+     *
+     * @param chunkX    The X coordinate of the chunk, block chunkX * chunkSize being its first on the x-axis
+     * @param chunkY    The Y coordinate of the chunk, block chunkY * chunkSize being its first on the y-axis
+     * @param chunkSize The number of blocks on each side of the chunk, e.g. 16
+     * @param blockSize A block's dimension in erosion basis
+     * @param out       The array receiving the interpolated heights in row-major order
+     */
+    public void sampleChunk(int chunkX, int chunkY, int chunkSize, double blockSize, float[] out) {
+        if ((long) chunkSize * chunkSize > out.length)
+            throw new IllegalArgumentException("out must hold chunkSize * chunkSize samples");
+        double[] samples = CHUNK_ROW.get();
+        if (samples.length < chunkSize) CHUNK_ROW.set(samples = new double[chunkSize]);
+        double fromX = (double) chunkX * chunkSize * blockSize;
+        for (int row = 0; row < chunkSize; row++) {
+            sampleRow(((double) chunkY * chunkSize + row) * blockSize, fromX, blockSize, samples, 0, chunkSize);
+            for (int i = 0; i < chunkSize; i++)
+                out[row * chunkSize + i] = (float) samples[i];
+        }
+    }
+
+    /**
+     * Interpolates the height of a point along with its gradient, by central finite differences unless overridden
+     * with an analytic gradient
+     *
+     * @param x        The X coordinate of the point
+     * @param y        The Y coordinate of that point
+     * @param gradient The array receiving the partial derivatives of the height along x then y
+     * @return The interpolated height at the point
+     */
+    public double interpolateGradient(double x, double y, double[] gradient) {
+        double height = interpolate(x, y);
+        double step = gradientStep();
+        gradient[0] = difference(interpolate(x - step, y, Double.NaN), height, interpolate(x + step, y, Double.NaN), step);
+        gradient[1] = difference(interpolate(x, y - step, Double.NaN), height, interpolate(x, y + step, Double.NaN), step);
+        return height;
+    }
+
+    /**
+     * Interpolates the heights and gradients of a grid of points in parallel rows, sampled at pixel centers <br/>
+     * Points that are not covered receive {@link Double#NaN} rather than throwing
+     *
+     * @param bounds    The rectangle covered by the grid
+     * @param width     The number of samples on the x-axis
+     * @param height    The number of samples on the y-axis
+     * @param heights   The array receiving the interpolated heights in row-major order
+     * @param gradients The array receiving the partial derivatives along x then y of every sample in row-major order
+     */
+    public void sampleGradientGrid(RectD bounds, int width, int height, double[] heights, double[] gradients) {
+        if ((long) width * height > heights.length || 2L * width * height > gradients.length)
+            throw new IllegalArgumentException("heights must hold width * height samples and gradients twice as many");
+        double stepX = bounds.width() / width;
+        double stepY = bounds.height() / height;
+        IntStream.range(0, height).parallel().forEach(row -> sampleGradientRow(
+                bounds.min.y + (row + 0.5) * stepY, bounds.min.x + 0.5 * stepX, stepX,
+                heights, gradients, row * width, width));
+    }
+
+    /**
+     * Computes the unit normals of a grid of points in parallel rows, sampled at pixel centers, with z pointing up
+     * <br/>
+     * Points that are not covered receive {@link Float#NaN} rather than throwing
+     *
+     * @param bounds The rectangle covered by the grid
+     * @param width  The number of samples on the x-axis
+     * @param height The number of samples on the y-axis
+     * @param out    The array receiving the (x, y, z) components of every normal in row-major order
+     */
+    public void sampleNormalGrid(RectD bounds, int width, int height, float[] out) {
+        if (3L * width * height > out.length)
+            throw new IllegalArgumentException("out must hold 3 * width * height components");
+        double stepX = bounds.width() / width;
+        double stepY = bounds.height() / height;
+        IntStream.range(0, height).parallel().forEach(row -> {
+            double[] heights = new double[width];
+            double[] gradients = new double[2 * width];
+            sampleGradientRow(bounds.min.y + (row + 0.5) * stepY, bounds.min.x + 0.5 * stepX, stepX,
+                    heights, gradients, 0, width);
+            for (int i = 0; i < width; i++) {
+                double gx = gradients[2 * i], gy = gradients[2 * i + 1];
+                double length = Math.sqrt(gx * gx + gy * gy + 1);
+                int o = 3 * (row * width + i);
+                out[o] = (float) (-gx / length);
+                out[o + 1] = (float) (-gy / length);
+                out[o + 2] = (float) (1 / length);
+            }
+        });
+    }
+
+    /**
+     * Interpolates the heights and gradients of a row of evenly spaced points, overridden by interpolators that
+     * benefit from scanline coherence, writing {@link Double#NaN} at points that are not covered
+     *
+     * @param y         The Y coordinate of the row
+     * @param fromX     The X coordinate of the first point
+     * @param stepX     The distance between two consecutive points
+     * @param heights   The array receiving the interpolated heights
+     * @param gradients The array receiving the partial derivatives along x then y of every point
+     * @param offset    The index in heights of the first point, twice that in gradients
+     * @param count     The number of points
+     */
+    protected void sampleGradientRow(double y, double fromX, double stepX, double[] heights, double[] gradients,
+                                     int offset, int count) {
+        double[] gradient = new double[2];
+        for (int i = 0; i < count; i++) {
+            double x = fromX + i * stepX;
+            if (covers(x, y)) {
+                heights[offset + i] = interpolateGradient(x, y, gradient);
+                gradients[2 * (offset + i)] = gradient[0];
+                gradients[2 * (offset + i) + 1] = gradient[1];
+            } else {
+                heights[offset + i] = Double.NaN;
+                gradients[2 * (offset + i)] = Double.NaN;
+                gradients[2 * (offset + i) + 1] = Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * The distance between the samples of the finite differences of {@link #interpolateGradient}, a thousandth of
+     * the geometry's minimum distance unless overridden
+     *
+     * @return The finite difference step
+     */
+    protected double gradientStep() {
+        return gradientStep;
+    }
+
+    /**
+     * Folds an X coordinate into the period of a toroidal geometry, where h(x) = h(x + width)
+     *
+     * @param x The X coordinate
+     * @return The coordinate within the period, x itself if the geometry is not toroidal
+     */
+    protected final double wrapX(double x) {
+        return torus == null ? x : torus.wrapX(x);
+    }
+
+    /**
+     * Folds a Y coordinate into the period of a toroidal geometry, where h(y) = h(y + height)
+     *
+     * @param y The Y coordinate
+     * @return The coordinate within the period, y itself if the geometry is not toroidal
+     */
+    protected final double wrapY(double y) {
+        return torus == null ? y : torus.wrapY(y);
+    }
+
+    // central differences, one-sided next to uncovered points
+    private static double difference(double before, double at, double after, double step) {
+        if (!Double.isNaN(before) && !Double.isNaN(after)) return (after - before) / (2 * step);
+        if (!Double.isNaN(after)) return (after - at) / step;
+        if (!Double.isNaN(before)) return (at - before) / step;
+        return 0;
+    }
+
+    /**
+     * Interpolates the heights of a row of evenly spaced points, overridden by interpolators that benefit from
+     * scanline coherence, writing {@link Double#NaN} at points that are not covered
+     *
+     * @param y      The Y coordinate of the row
+     * @param fromX  The X coordinate of the first point
+     * @param stepX  The distance between two consecutive points
+     * @param out    The array receiving the interpolated heights
+     * @param offset The index in out of the first point
+     * @param count  The number of points
+     */
+    protected void sampleRow(double y, double fromX, double stepX, double[] out, int offset, int count) {
+        for (int i = 0; i < count; i++)
+            out[offset + i] = interpolate(fromX + i * stepX, y, Double.NaN);
+    }
 }
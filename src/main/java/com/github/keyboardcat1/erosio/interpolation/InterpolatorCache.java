@@ -0,0 +1,147 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import org.kynosarges.tektosyne.geometry.PointD;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An {@link Interpolator} memoizing the heights of another, for queries repeated many times such as chunk borders
+ * <br/>
+ * Coordinates are snapped to a lattice of spacing {@link #quantum} and the wrapped interpolator is evaluated at the
+ * lattice point, so that results do not depend on the order of queries. Entries live in a fixed number of sets of
+ * {@link #WAYS} slots, read and written without locking, a full set evicting one of its slots at random.
+ */
+public class InterpolatorCache extends Interpolator {
+    /**
+     * The number of slots in a set
+     */
+    public static final int WAYS = 4;
+
+    /**
+     * The memoized {@link Interpolator}
+     */
+    public final Interpolator interpolator;
+    /**
+     * The spacing of the lattice coordinates are snapped to
+     */
+    public final double quantum;
+    /**
+     * The maximum number of memoized heights
+     */
+    public final int capacity;
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * An {@link Interpolator} memoizing the heights of another, for queries repeated many times such as chunk borders
+     *
+     * @param interpolator The {@link Interpolator} to memoize
+     * @param quantum      The spacing of the lattice coordinates are snapped to
+     * @param capacity     The maximum number of memoized heights, rounded up to a power of two
+     */
+    public InterpolatorCache(Interpolator interpolator, double quantum, int capacity) {
+        if (!(quantum > 0))
+            throw new IllegalArgumentException("quantum must be positive, got " + quantum);
+        if (capacity <= 0 || capacity > 1 << 30)
+            throw new IllegalArgumentException("capacity must lie between 1 and 2^30, got " + capacity);
+        this.interpolator = interpolator;
+        this.quantum = quantum;
+        this.capacity = Math.max(WAYS, Integer.highestOneBit(capacity - 1) << 1);
+        this.entries = new AtomicReferenceArray<>(this.capacity);
+    }
+
+    @Override
+    public double interpolate(PointD point) {
+        return interpolate(point.x, point.y);
+    }
+
+    @Override
+    public double interpolate(double x, double y) {
+        Entry entry = entry(x, y);
+        // uncovered points are answered from memory too, rather than asking the wrapped interpolator to throw again
+        if (!entry.covered())
+            throw new IndexOutOfBoundsException(new PointD(x, y) + " does not lie within the convex hull");
+        return entry.height();
+    }
+
+    @Override
+    public double interpolate(double x, double y, double fillValue) {
+        Entry entry = entry(x, y);
+        return entry.covered() ? entry.height() : fillValue;
+    }
+
+    @Override
+    public boolean covers(double x, double y) {
+        return entry(x, y).covered();
+    }
+
+    // gradients are not memoized, finite differences would vanish below the quantum
+    @Override
+    public double interpolateGradient(double x, double y, double[] gradient) {
+        return interpolator.interpolateGradient(x, y, gradient);
+    }
+
+    /**
+     * The number of queries served from memory since the last {@link #clear()}
+     *
+     * @return The number of cache hits
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of queries forwarded to {@link #interpolator} since the last {@link #clear()}
+     *
+     * @return The number of cache misses
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Forgets every memoized height and resets the counters
+     */
+    public void clear() {
+        for (int i = 0; i < capacity; i++)
+            entries.set(i, null);
+        hits.reset();
+        misses.reset();
+    }
+
+    // the memoized entry of the lattice point closest to a point, evaluated on a miss
+    private Entry entry(double x, double y) {
+        long keyX = Math.round(x / quantum), keyY = Math.round(y / quantum);
+        int set = (int) (mix(keyX * 0x9E3779B97F4A7C15L + keyY) & (capacity / WAYS - 1)) * WAYS;
+        for (int way = 0; way < WAYS; way++) {
+            Entry entry = entries.get(set + way);
+            if (entry != null && entry.x() == keyX && entry.y() == keyY) {
+                hits.increment();
+                return entry;
+            }
+        }
+        misses.increment();
+        double height = interpolator.interpolate(keyX * quantum, keyY * quantum, Double.NaN);
+        // a covered point may still interpolate to NaN, e.g. with no node within a kernel's reach
+        boolean covered = !Double.isNaN(height) || interpolator.covers(keyX * quantum, keyY * quantum);
+        Entry entry = new Entry(keyX, keyY, height, covered);
+        int victim = -1;
+        for (int way = 0; way < WAYS && victim < 0; way++)
+            if (entries.get(set + way) == null) victim = way;
+        if (victim < 0) victim = ThreadLocalRandom.current().nextInt(WAYS);
+        entries.set(set + victim, entry);
+        return entry;
+    }
+
+    private static long mix(long key) {
+        key = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+        return key ^ (key >>> 33);
+    }
+
+    private record Entry(long x, long y, double height, boolean covered) {
+    }
+}
@@ -1,16 +1,24 @@
 package com.github.keyboardcat1.erosio.interpolation;
 
 import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryToroidal;
 import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
 
+import java.util.Comparator;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 /**
- * Interpolation with gaussian kernels
+ * Interpolation with gaussian kernels <br/>
+ * Each node's gaussian has a standard deviation proportional to its distance to the point, so its weight
+ * (c/d)^-2 / sqrt(2 pi) * exp(-c^2 / 2) reduces to 1/d^2 up to a factor common to every node, which cancels out.
+ * Whole grids are sampled by scattering every node's kernel into the pixels it reaches rather than gathering
+ * the nodes around every pixel.
  */
 public class InterpolatorGaussianKernel extends SpontaneousInterpolator {
-    private static final double SQRT2PI = Math.sqrt(2*Math.PI);
+    private static final int BAND_ROWS = 16;
 
     /**
      * The inverse standard deviation of each point's gaussian function
@@ -22,6 +30,11 @@ public class InterpolatorGaussianKernel extends SpontaneousInterpolator {
     public final double normalizedError;
 
     private final double d_epsilon;
+    // the nodes sorted on the y-axis once and for all, so that a band finds the nodes reaching it by binary search
+    private final int[] sortedNodes;
+    private final double[] sortedYs;
+    // splatting the kernels of a toroidal geometry would miss the images of the nodes farther than the index reaches
+    private final boolean toroidal;
 
     /**
      * Interpolation with gaussian kernels
@@ -40,29 +53,158 @@ public class InterpolatorGaussianKernel extends SpontaneousInterpolator {
         for (Map.Entry<PointD, Set<PointD>> entry : eroderResults.eroderGeometry.graph.entrySet()) {
             for (PointD neighbor : entry.getValue()) {
                 N += 1;
-                total += entry.getKey().subtract(neighbor).length();
+                total += eroderResults.eroderGeometry.distance(entry.getKey(), neighbor);
             }
         }
         double average = total/N;
 
         this.d_epsilon = average / stddevInverseCoefficient * Math.sqrt(2*Math.abs(Math.log(normalizedError)));
+
+        int count = nodeIndex.ys.length;
+        this.sortedNodes = IntStream.range(0, count).boxed()
+                .sorted(Comparator.comparingDouble(node -> nodeIndex.ys[node]))
+                .mapToInt(Integer::intValue).toArray();
+        this.sortedYs = new double[count];
+        for (int i = 0; i < count; i++)
+            sortedYs[i] = nodeIndex.ys[sortedNodes[i]];
+        this.toroidal = eroderResults.eroderGeometry instanceof EroderGeometryToroidal;
     }
 
     @Override
     public double interpolate(PointD point) {
-        double numerator = 0.0D;
-        double denominator = 0.0D;
-        for (PointD node : getRange(point, d_epsilon)) {
-            double height = eroderResults.heightMap.get(node);
-            double distance = point.subtract(node).length();
-            double weight = normalDist(distance, 0, Math.pow((distance/stddevInverseCoefficient), 2));
-            numerator += height * weight;
-            denominator += weight;
+        return interpolate(point.x, point.y);
+    }
+
+    @Override
+    public double interpolate(double x, double y) {
+        WeightedSum sum = new WeightedSum();
+        nodeIndex.forEachInRange(wrapX(x), wrapY(y), d_epsilon, sum);
+        return sum.numerator / sum.denominator;
+    }
+
+    @Override
+    protected void sampleRow(double y, double fromX, double stepX, double[] out, int offset, int count) {
+        y = wrapY(y);
+        WeightedSum sum = new WeightedSum();
+        for (int i = 0; i < count; i++) {
+            sum.numerator = 0.0D;
+            sum.denominator = 0.0D;
+            nodeIndex.forEachInRange(wrapX(fromX + i * stepX), y, d_epsilon, sum);
+            out[offset + i] = sum.numerator / sum.denominator;
+        }
+    }
+
+    // the quotient rule on the weighted mean, the weight 1 / d^2 having the gradient -2 (x - x_i) / d^4
+    @Override
+    public double interpolateGradient(double x, double y, double[] gradient) {
+        double wrappedX = wrapX(x), wrappedY = wrapY(y);
+        double[] sums = new double[6];
+        nodeIndex.forEachInRange(wrappedX, wrappedY, d_epsilon, (node, distanceSquared) -> {
+            double weight = 1 / distanceSquared;
+            double slope = -2 * weight * weight;
+            double weightX = slope * (wrappedX - nodeIndex.xs[node]), weightY = slope * (wrappedY - nodeIndex.ys[node]);
+            double height = nodeIndex.heights[node];
+            sums[0] += height * weight;
+            sums[1] += weight;
+            sums[2] += height * weightX;
+            sums[3] += height * weightY;
+            sums[4] += weightX;
+            sums[5] += weightY;
+        });
+        double mean = sums[0] / sums[1];
+        gradient[0] = (sums[2] - mean * sums[4]) / sums[1];
+        gradient[1] = (sums[3] - mean * sums[5]) / sums[1];
+        return mean;
+    }
+
+    @Override
+    public void sampleGrid(RectD bounds, int width, int height, double[] out) {
+        if (toroidal) {
+            super.sampleGrid(bounds, width, height, out);
+            return;
+        }
+        if ((long) width * height > out.length)
+            throw new IllegalArgumentException("out must hold width * height samples");
+        splat(bounds, width, height, out, null);
+    }
+
+    @Override
+    public void sampleGrid(RectD bounds, int width, int height, float[] out) {
+        if (toroidal) {
+            super.sampleGrid(bounds, width, height, out);
+            return;
+        }
+        if ((long) width * height > out.length)
+            throw new IllegalArgumentException("out must hold width * height samples");
+        splat(bounds, width, height, null, out);
+    }
+
+    /*
+     * Scatters every node's kernel into the pixels within d_epsilon of it, band of rows by band of rows,
+     * accumulating the numerator and denominator of the weighted mean in buffers local to the band
+     */
+    private void splat(RectD bounds, int width, int height, double[] doubleOut, float[] floatOut) {
+        double stepX = bounds.width() / width;
+        double stepY = bounds.height() / height;
+        double fromX = bounds.min.x + 0.5 * stepX;
+        double radiusSquared = d_epsilon * d_epsilon;
+
+        int count = sortedNodes.length;
+
+        IntStream.range(0, (height + BAND_ROWS - 1) / BAND_ROWS).parallel().forEach(band -> {
+            int fromRow = band * BAND_ROWS, toRow = Math.min(height, fromRow + BAND_ROWS);
+            double[] numerators = new double[(toRow - fromRow) * width];
+            double[] denominators = new double[(toRow - fromRow) * width];
+            double minY = bounds.min.y + fromRow * stepY - d_epsilon;
+            double maxY = bounds.min.y + toRow * stepY + d_epsilon;
+            for (int i = lowerBound(sortedYs, minY); i < count && sortedYs[i] <= maxY; i++) {
+                int node = sortedNodes[i];
+                double nodeX = nodeIndex.xs[node], nodeY = nodeIndex.ys[node], nodeHeight = nodeIndex.heights[node];
+                for (int row = fromRow; row < toRow; row++) {
+                    double dy = nodeY - (bounds.min.y + (row + 0.5) * stepY);
+                    if (dy * dy > radiusSquared) continue;
+                    // the chord of the kernel's disk along the row, widened by a pixel against rounding
+                    double chord = Math.sqrt(radiusSquared - dy * dy);
+                    int fromColumn = Math.max(0, (int) Math.floor((nodeX - chord - fromX) / stepX));
+                    int toColumn = Math.min(width - 1, (int) Math.ceil((nodeX + chord - fromX) / stepX));
+                    int offset = (row - fromRow) * width;
+                    for (int column = fromColumn; column <= toColumn; column++) {
+                        double dx = nodeX - (fromX + column * stepX);
+                        double distanceSquared = dx * dx + dy * dy;
+                        if (distanceSquared > radiusSquared) continue;
+                        double weight = 1 / distanceSquared;
+                        numerators[offset + column] += nodeHeight * weight;
+                        denominators[offset + column] += weight;
+                    }
+                }
+            }
+            for (int i = 0; i < numerators.length; i++) {
+                double value = numerators[i] / denominators[i];
+                if (doubleOut != null) doubleOut[fromRow * width + i] = value;
+                else floatOut[fromRow * width + i] = (float) value;
+            }
+        });
+    }
+
+    private static int lowerBound(double[] sorted, double value) {
+        int low = 0, high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] < value) low = middle + 1;
+            else high = middle;
         }
-        return numerator / denominator;
+        return low;
     }
 
-    private double normalDist(double x, double m, double v) {
-        return (1/(v*SQRT2PI)) * Math.exp(-Math.pow(x-m,2)/(2*v));
+    private final class WeightedSum implements NodeIndex.Visitor {
+        private double numerator = 0.0D;
+        private double denominator = 0.0D;
+
+        @Override
+        public void visit(int node, double distanceSquared) {
+            double weight = 1 / distanceSquared;
+            numerator += nodeIndex.heights[node] * weight;
+            denominator += weight;
+        }
     }
 }
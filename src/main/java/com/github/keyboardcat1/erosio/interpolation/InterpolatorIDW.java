@@ -4,7 +4,10 @@ import com.github.keyboardcat1.erosio.EroderResults;
 import org.kynosarges.tektosyne.geometry.PointD;
 
 /**
- * Interpolation with Inverse Distance Weighting
+ * Interpolation with Inverse Distance Weighting <br/>
+ * Samples every node within a radius, or only the nodes closest to each point among them for a bounded cost per
+ * query.
+ * The exponents 1, 2 and 3 are computed without {@link Math#pow}.
  */
 public class InterpolatorIDW extends SpontaneousInterpolator {
     /**
@@ -15,6 +18,10 @@ public class InterpolatorIDW extends SpontaneousInterpolator {
      * The interpolation radius to sample points from
      */
     public final double radius;
+    /**
+     * The maximum number of closest nodes to sample within {@link #radius}, 0 if there is none
+     */
+    public final int neighbors;
 
     /**
      * Interpolation with Inverse Distance Weighting
@@ -27,18 +34,168 @@ public class InterpolatorIDW extends SpontaneousInterpolator {
         super(eroderResults);
         this.exponent = exponent;
         this.radius = radius;
+        this.neighbors = 0;
+    }
+
+    /**
+     * Interpolation with Inverse Distance Weighting over the closest nodes to each point
+     *
+     * @param eroderResults The {@link EroderResults} to interpolate
+     * @param exponent      The exponent in the IDW weight
+     * @param radius        The interpolation radius to sample points from, possibly {@link Double#POSITIVE_INFINITY}
+     * @param neighbors     The maximum number of closest nodes to sample within the radius
+     */
+    public InterpolatorIDW(EroderResults eroderResults, double exponent, double radius, int neighbors) {
+        super(eroderResults);
+        if (neighbors <= 0)
+            throw new IllegalArgumentException("There must be at least one neighbor, got " + neighbors);
+        this.exponent = exponent;
+        this.radius = radius;
+        this.neighbors = neighbors;
     }
 
     @Override
     public double interpolate(PointD point) {
-        double numerator = 0.0D;
-        double denominator = 0.0D;
-        for (PointD node : getRange(point, radius)) {
-            double height = eroderResults.heightMap.get(node);
-            double weight = Math.pow(point.subtract(node).lengthSquared(), exponent * -0.5D);
-            numerator += height * weight;
+        return interpolate(point.x, point.y);
+    }
+
+    @Override
+    public double interpolate(double x, double y) {
+        x = wrapX(x);
+        y = wrapY(y);
+        if (neighbors > 0)
+            return interpolateNearest(x, y, new int[neighbors], new double[neighbors]);
+        WeightedSum sum = new WeightedSum();
+        nodeIndex.forEachInRange(x, y, radius, sum);
+        return sum.mean();
+    }
+
+    @Override
+    protected void sampleRow(double y, double fromX, double stepX, double[] out, int offset, int count) {
+        y = wrapY(y);
+        if (neighbors > 0) {
+            int[] nodes = new int[neighbors];
+            double[] distancesSquared = new double[neighbors];
+            for (int i = 0; i < count; i++)
+                out[offset + i] = interpolateNearest(wrapX(fromX + i * stepX), y, nodes, distancesSquared);
+            return;
+        }
+        WeightedSum sum = new WeightedSum();
+        for (int i = 0; i < count; i++) {
+            sum.reset();
+            nodeIndex.forEachInRange(wrapX(fromX + i * stepX), y, radius, sum);
+            out[offset + i] = sum.mean();
+        }
+    }
+
+    // the quotient rule on the weighted mean, accumulated over the same nodes as the height
+    @Override
+    public double interpolateGradient(double x, double y, double[] gradient) {
+        x = wrapX(x);
+        y = wrapY(y);
+        GradientSum sum = new GradientSum(x, y);
+        if (neighbors > 0) {
+            int[] nodes = new int[neighbors];
+            double[] distancesSquared = new double[neighbors];
+            int count = nodeIndex.nearest(x, y, neighbors, radius, nodes, distancesSquared);
+            for (int i = 0; i < count; i++)
+                sum.visit(nodes[i], distancesSquared[i]);
+        } else {
+            nodeIndex.forEachInRange(x, y, radius, sum);
+        }
+        return sum.mean(gradient);
+    }
+
+    // the weighted sum over the closest nodes, reusing the caller's scratch arrays
+    private double interpolateNearest(double x, double y, int[] nodes, double[] distancesSquared) {
+        int count = nodeIndex.nearest(x, y, neighbors, radius, nodes, distancesSquared);
+        double numerator = 0.0D, denominator = 0.0D;
+        for (int i = 0; i < count; i++) {
+            if (distancesSquared[i] == 0) return nodeIndex.heights[nodes[i]];
+            double weight = weight(distancesSquared[i]);
+            numerator += nodeIndex.heights[nodes[i]] * weight;
             denominator += weight;
         }
         return numerator / denominator;
     }
+
+    private double weight(double distanceSquared) {
+        if (exponent == 2.0D) return 1.0D / distanceSquared;
+        if (exponent == 1.0D) return 1.0D / Math.sqrt(distanceSquared);
+        if (exponent == 3.0D) return 1.0D / (distanceSquared * Math.sqrt(distanceSquared));
+        return Math.pow(distanceSquared, exponent * -0.5D);
+    }
+
+    // a point lying on a node takes its height, where its infinite weight would make the mean NaN
+    private final class WeightedSum implements NodeIndex.Visitor {
+        private double numerator = 0.0D;
+        private double denominator = 0.0D;
+        private int onNode = -1;
+
+        @Override
+        public void visit(int node, double distanceSquared) {
+            if (distanceSquared == 0) onNode = node;
+            if (onNode >= 0) return;
+            double weight = weight(distanceSquared);
+            numerator += nodeIndex.heights[node] * weight;
+            denominator += weight;
+        }
+
+        private double mean() {
+            return onNode >= 0 ? nodeIndex.heights[onNode] : numerator / denominator;
+        }
+
+        private void reset() {
+            numerator = 0.0D;
+            denominator = 0.0D;
+            onNode = -1;
+        }
+    }
+
+    // the weighted sum along with its partial derivatives, the weight d^-p having the gradient -p d^-p (x - x_i) / d^2
+    private final class GradientSum implements NodeIndex.Visitor {
+        private final double x;
+        private final double y;
+        private double numerator = 0.0D;
+        private double denominator = 0.0D;
+        private double numeratorX = 0.0D;
+        private double numeratorY = 0.0D;
+        private double denominatorX = 0.0D;
+        private double denominatorY = 0.0D;
+        private int onNode = -1;
+
+        private GradientSum(double x, double y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public void visit(int node, double distanceSquared) {
+            if (distanceSquared == 0) onNode = node;
+            if (onNode >= 0) return;
+            double weight = weight(distanceSquared);
+            double slope = -exponent * weight / distanceSquared;
+            double weightX = slope * (x - nodeIndex.xs[node]), weightY = slope * (y - nodeIndex.ys[node]);
+            double height = nodeIndex.heights[node];
+            numerator += height * weight;
+            denominator += weight;
+            numeratorX += height * weightX;
+            numeratorY += height * weightY;
+            denominatorX += weightX;
+            denominatorY += weightY;
+        }
+
+        // a point lying on a node is a flat spot of the mean
+        private double mean(double[] gradient) {
+            if (onNode >= 0) {
+                gradient[0] = 0;
+                gradient[1] = 0;
+                return nodeIndex.heights[onNode];
+            }
+            double mean = numerator / denominator;
+            gradient[0] = (numeratorX - mean * denominatorX) / denominator;
+            gradient[1] = (numeratorY - mean * denominatorY) / denominator;
+            return mean;
+        }
+    }
 }
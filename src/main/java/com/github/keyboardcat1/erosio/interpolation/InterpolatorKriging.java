@@ -5,10 +5,12 @@ import org.ejml.simple.SimpleMatrix;
 import org.kynosarges.tektosyne.geometry.PointD;
 
 import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * Interpolation with Kriging interpolation
+ * Interpolation with Kriging interpolation <br/>
+ * The kriging system of every set of neighbors is solved once and kept in a bounded, lock-free cache keyed by the
+ * spatial cell of the query, so that nearby queries sharing their neighbors only cost a dot product.
  */
 public class InterpolatorKriging extends SpontaneousInterpolator{
     /**
@@ -32,6 +34,10 @@ public class InterpolatorKriging extends SpontaneousInterpolator{
      */
     public final double a;
 
+    private static final int CACHE_SIZE = 1 << 14;
+
+    private final double cacheCellSize;
+    private final AtomicReferenceArray<Solution> cache = new AtomicReferenceArray<>(CACHE_SIZE);
 
     /**
      * Interpolation with Kriging interpolation
@@ -50,40 +56,119 @@ public class InterpolatorKriging extends SpontaneousInterpolator{
         this.sill = sill;
         this.range = range;
         this.a = a;
+        this.cacheCellSize = nodeIndex.cellSize / 2;
     }
 
     @Override
     public double interpolate(PointD point) {
-        List<PointD> neighbors = getRange(point, range).stream().toList();
+        return interpolate(point.x, point.y);
+    }
+
+    @Override
+    public double interpolate(double x, double y) {
+        x = wrapX(x);
+        y = wrapY(y);
+        int[] neighbors = nodeIndex.range(x, y, range);
+        return interpolate(x, y, solution(x, y, neighbors, null));
+    }
+
+    // reuses the system of the previous point of the row while the neighbors stay the same
+    @Override
+    protected void sampleRow(double y, double fromX, double stepX, double[] out, int offset, int count) {
+        y = wrapY(y);
+        Solution solution = null;
+        for (int i = 0; i < count; i++) {
+            double x = wrapX(fromX + i * stepX);
+            solution = solution(x, y, nodeIndex.range(x, y, range), solution);
+            out[offset + i] = interpolate(x, y, solution);
+        }
+    }
+
+    // the derivative of c^T b, the distances in b being the only terms depending on the point
+    @Override
+    public double interpolateGradient(double x, double y, double[] gradient) {
+        x = wrapX(x);
+        y = wrapY(y);
+        Solution solution = solution(x, y, nodeIndex.range(x, y, range), null);
+        int[] neighbors = solution.neighbors();
+        double[] coefficients = solution.coefficients();
+        gradient[0] = 0;
+        gradient[1] = 0;
+        for (int i = 0; i < neighbors.length; i++) {
+            double nodeX = nodeIndex.xs[neighbors[i]], nodeY = nodeIndex.ys[neighbors[i]];
+            double distance = distance(nodeX, nodeY, x, y);
+            if (distance == 0) continue;
+            gradient[0] += coefficients[i] * (x - nodeX) / distance;
+            gradient[1] += coefficients[i] * (y - nodeY) / distance;
+        }
+        return interpolate(x, y, solution);
+    }
 
-        SimpleMatrix matrix = new SimpleMatrix(neighbors.size() + 1, neighbors.size() + 1);
-        double[] edge = new double[neighbors.size() + 1];
+    private double interpolate(double x, double y, Solution solution) {
+        int[] neighbors = solution.neighbors();
+        double[] coefficients = solution.coefficients();
+        int n = neighbors.length;
+        double out = coefficients[n];
+        for (int i = 0; i < n; i++)
+            out += coefficients[i] * distance(nodeIndex.xs[neighbors[i]], nodeIndex.ys[neighbors[i]], x, y);
+        return out;
+    }
+
+    // the solved system of a set of neighbors, from the last point or the cache if they share it
+    private Solution solution(double x, double y, int[] neighbors, Solution last) {
+        if (last != null && Arrays.equals(last.neighbors(), neighbors)) return last;
+        long cell = ((long) Math.floor(x / cacheCellSize) << 32) | ((long) Math.floor(y / cacheCellSize) & 0xFFFFFFFFL);
+        int slot = (int) (mix(cell) & (cache.length() - 1));
+        Solution cached = cache.get(slot);
+        if (cached != null && cached.cell() == cell && Arrays.equals(cached.neighbors(), neighbors)) return cached;
+        Solution solution = new Solution(cell, neighbors, solve(neighbors));
+        cache.set(slot, solution);
+        return solution;
+    }
+
+    /*
+     * The height is h^T A^-1 b for the symmetric matrix A of the neighbors and the vector b of the point,
+     * so solving A c = h once per set of neighbors leaves a dot product c^T b per point
+     */
+    private double[] solve(int[] neighbors) {
+        int n = neighbors.length;
+        if (n == 0) return new double[1];
+
+        SimpleMatrix matrix = new SimpleMatrix(n + 1, n + 1);
+        double[] edge = new double[n + 1];
         Arrays.fill(edge, 1);
         edge[edge.length - 1] = 0;
-        matrix.setRow(neighbors.size(), 0, edge);
-        matrix.setColumn(neighbors.size(), 0, edge);
-        for (int i = 0; i <= neighbors.size(); i++)
-            for (int j = 0; j <= neighbors.size(); j++) {
-                double lagDistance = i < neighbors.size() && j < neighbors.size() ?
-                        neighbors.get(i).subtract(neighbors.get(j)).length() :
+        matrix.setRow(n, 0, edge);
+        matrix.setColumn(n, 0, edge);
+        for (int i = 0; i <= n; i++)
+            for (int j = 0; j <= n; j++) {
+                double lagDistance = i < n && j < n ?
+                        distance(nodeIndex.xs[neighbors[i]], nodeIndex.ys[neighbors[i]],
+                                nodeIndex.xs[neighbors[j]], nodeIndex.ys[neighbors[j]]) :
                         matrix.get(i, j);
                 matrix.set(i, j, semiVariance(lagDistance));
             }
 
-        SimpleMatrix vector = new SimpleMatrix(neighbors.size() + 1, 1);
-        for (int i = 0; i < neighbors.size(); i++)
-            vector.set(i, 0, neighbors.get(i).subtract(point).length());
-        vector.set(neighbors.size(), 0, 1);
+        SimpleMatrix heights = new SimpleMatrix(n + 1, 1);
+        for (int i = 0; i < n; i++)
+            heights.set(i, 0, nodeIndex.heights[neighbors[i]]);
 
-        SimpleMatrix weights = matrix.solve(vector);
-
-        double out = 0.0D;
-        for (int i = 0; i < neighbors.size(); i++)
-            out += weights.get(i, 0) * eroderResults.heightMap.get(neighbors.get(i));
-        
+        SimpleMatrix coefficients = matrix.solve(heights);
+        double[] out = new double[n + 1];
+        for (int i = 0; i <= n; i++)
+            out[i] = coefficients.get(i, 0);
         return out;
     }
 
+    private static long mix(long key) {
+        key = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+        return key ^ (key >>> 33);
+    }
+
+    private static double distance(double x0, double y0, double x1, double y1) {
+        double dx = x0 - x1, dy = y0 - y1;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
 
     private double semiVariance(double h) {
         switch (model) {
@@ -126,4 +211,8 @@ public class InterpolatorKriging extends SpontaneousInterpolator{
          */
         GAUSSIAN
     }
+
+    // the solved kriging system of a set of neighbors, cached under the cell it was first queried from
+    private record Solution(long cell, int[] neighbors, double[] coefficients) {
+    }
 }
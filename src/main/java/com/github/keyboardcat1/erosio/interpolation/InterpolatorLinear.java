@@ -0,0 +1,149 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.TriangleMesh;
+import org.kynosarges.tektosyne.geometry.PointD;
+
+/**
+ * Linear interpolation over the triangles of the geometry's {@link TriangleMesh} <br/>
+ * Triangles are located by walking across the mesh from the last triangle found by the same thread, so that
+ * consecutive nearby queries cost a few steps, falling back to {@link TriangleMesh#locate} for distant jumps.
+ * Nothing is precomputed beyond the mesh.
+ */
+public class InterpolatorLinear extends Interpolator {
+    private static final int MAX_STEPS = 64;
+
+    private final TriangleMesh mesh;
+    private final double[] heights;
+    private final ThreadLocal<int[]> cursor = ThreadLocal.withInitial(() -> new int[]{-1});
+
+    /**
+     * Linear interpolation over the triangles of the geometry's {@link TriangleMesh}
+     *
+     * @param eroderResults The {@link EroderResults} to interpolate
+     */
+    public InterpolatorLinear(EroderResults eroderResults) {
+        super(eroderResults);
+        this.mesh = eroderResults.eroderGeometry.mesh();
+        this.heights = eroderResults.meshHeights();
+    }
+
+    @Override
+    public double interpolate(PointD point) {
+        double x = wrapX(point.x), y = wrapY(point.y);
+        int triangle = find(x, y);
+        if (triangle < 0) throw new IndexOutOfBoundsException(point + " does not lie within the convex hull");
+        return sample(triangle, x, y);
+    }
+
+    @Override
+    public double interpolate(double x, double y) {
+        x = wrapX(x);
+        y = wrapY(y);
+        int triangle = find(x, y);
+        if (triangle < 0) throw new IndexOutOfBoundsException(new PointD(x, y) + " does not lie within the convex hull");
+        return sample(triangle, x, y);
+    }
+
+    @Override
+    public double interpolate(double x, double y, double fillValue) {
+        x = wrapX(x);
+        y = wrapY(y);
+        int triangle = find(x, y);
+        return triangle < 0 ? fillValue : sample(triangle, x, y);
+    }
+
+    @Override
+    public boolean covers(double x, double y) {
+        return find(wrapX(x), wrapY(y)) >= 0;
+    }
+
+    // the gradient of the plane of the triangle
+    @Override
+    public double interpolateGradient(double x, double y, double[] gradient) {
+        x = wrapX(x);
+        y = wrapY(y);
+        int triangle = find(x, y);
+        if (triangle < 0) throw new IndexOutOfBoundsException(new PointD(x, y) + " does not lie within the convex hull");
+        gradient(triangle, gradient, 0);
+        return sample(triangle, x, y);
+    }
+
+    @Override
+    protected void sampleRow(double y, double fromX, double stepX, double[] out, int offset, int count) {
+        y = wrapY(y);
+        int[] cursor = this.cursor.get();
+        for (int i = 0; i < count; i++) {
+            double x = wrapX(fromX + i * stepX);
+            int triangle = find(cursor, x, y);
+            out[offset + i] = triangle < 0 ? Double.NaN : sample(triangle, x, y);
+        }
+    }
+
+    @Override
+    protected void sampleGradientRow(double y, double fromX, double stepX, double[] heights, double[] gradients,
+                                     int offset, int count) {
+        y = wrapY(y);
+        int[] cursor = this.cursor.get();
+        for (int i = 0; i < count; i++) {
+            double x = wrapX(fromX + i * stepX);
+            int triangle = find(cursor, x, y);
+            if (triangle < 0) {
+                heights[offset + i] = Double.NaN;
+                gradients[2 * (offset + i)] = Double.NaN;
+                gradients[2 * (offset + i) + 1] = Double.NaN;
+            } else {
+                heights[offset + i] = sample(triangle, x, y);
+                gradient(triangle, gradients, 2 * (offset + i));
+            }
+        }
+    }
+
+    private int find(double x, double y) {
+        return find(cursor.get(), x, y);
+    }
+
+    // walks from the cursor's triangle towards the point, crossing any edge the point lies beyond
+    private int find(int[] cursor, double x, double y) {
+        int triangle = cursor[0];
+        if (triangle >= 0) {
+            for (int step = 0; step < MAX_STEPS; step++) {
+                int next = -2;
+                for (int k = 0; k < 3; k++) {
+                    int a = mesh.triangles[3 * triangle + k], b = mesh.triangles[3 * triangle + (k + 1) % 3];
+                    if ((mesh.xs[b] - mesh.xs[a]) * (y - mesh.ys[a]) - (x - mesh.xs[a]) * (mesh.ys[b] - mesh.ys[a]) < 0) {
+                        next = mesh.adjacency[3 * triangle + k];
+                        break;
+                    }
+                }
+                if (next == -2) return cursor[0] = triangle;
+                if (next == -1) break;
+                triangle = next;
+            }
+        }
+        triangle = mesh.locate(x, y);
+        if (triangle >= 0) cursor[0] = triangle;
+        return triangle;
+    }
+
+    private double sample(int triangle, double x, double y) {
+        int a = mesh.triangles[3 * triangle], b = mesh.triangles[3 * triangle + 1], c = mesh.triangles[3 * triangle + 2];
+        double abx = mesh.xs[b] - mesh.xs[a], aby = mesh.ys[b] - mesh.ys[a];
+        double acx = mesh.xs[c] - mesh.xs[a], acy = mesh.ys[c] - mesh.ys[a];
+        double apx = x - mesh.xs[a], apy = y - mesh.ys[a];
+        double determinant = abx * acy - acx * aby;
+        double v = (apx * acy - acx * apy) / determinant;
+        double w = (abx * apy - apx * aby) / determinant;
+        return heights[a] + v * (heights[b] - heights[a]) + w * (heights[c] - heights[a]);
+    }
+
+    private void gradient(int triangle, double[] out, int offset) {
+        int a = mesh.triangles[3 * triangle], b = mesh.triangles[3 * triangle + 1], c = mesh.triangles[3 * triangle + 2];
+        double abx = mesh.xs[b] - mesh.xs[a], aby = mesh.ys[b] - mesh.ys[a];
+        double acx = mesh.xs[c] - mesh.xs[a], acy = mesh.ys[c] - mesh.ys[a];
+        double abz = heights[b] - heights[a], acz = heights[c] - heights[a];
+        double determinant = abx * acy - acx * aby;
+        out[offset] = (abz * acy - acz * aby) / determinant;
+        out[offset + 1] = (acz * abx - abz * acx) / determinant;
+    }
+}
@@ -1,12 +1,33 @@
 package com.github.keyboardcat1.erosio.interpolation;
 
 import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.TriangleMesh;
 import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /**
- * Interpolation by nearest neighbor
+ * Interpolation by nearest neighbor <br/>
+ * Optionally backed by a raster of the nearest node to every pixel of the bounding rectangle, built by jump flooding,
+ * so that a query is an array lookup followed by a short greedy walk along the mesh to the exact nearest node, checked
+ * against the {@link NodeIndex} where the mesh lacks edges of the geometry's graph. Queries outside the rectangle fall
+ * back to the index.
  */
 public class InterpolatorNN extends SpontaneousInterpolator {
+    /**
+     * A pixel's dimension in erosion basis in the nearest node raster, 0 if there is none
+     */
+    public final double pixelSize;
+
+    private final TriangleMesh mesh;
+    private final double[] heights;
+    private final int[] sites;
+    private final int columns;
+    private final int rows;
+    private final double minX;
+    private final double minY;
 
     /**
      * Interpolation by nearest neighbor
@@ -15,12 +36,151 @@ public class InterpolatorNN extends SpontaneousInterpolator {
      */
     public InterpolatorNN(EroderResults eroderResults) {
         super(eroderResults);
+        this.pixelSize = 0;
+        this.mesh = null;
+        this.heights = null;
+        this.sites = null;
+        this.columns = this.rows = 0;
+        this.minX = this.minY = 0;
+    }
+
+    /**
+     * Interpolation by nearest neighbor through a raster of the nearest node to every pixel
+     *
+     * @param eroderResults The {@link EroderResults} to interpolate
+     * @param pixelSize     A pixel's dimension in erosion basis in the nearest node raster
+     */
+    public InterpolatorNN(EroderResults eroderResults, double pixelSize) {
+        super(eroderResults);
+        this.pixelSize = pixelSize;
+        this.mesh = eroderResults.eroderGeometry.mesh();
+        this.heights = eroderResults.meshHeights();
+
+        RectD rectBounds = eroderResults.eroderGeometry.rectBounds;
+        this.minX = rectBounds.min.x;
+        this.minY = rectBounds.min.y;
+        this.columns = Math.max(1, (int) Math.ceil(rectBounds.width() / pixelSize));
+        this.rows = Math.max(1, (int) Math.ceil(rectBounds.height() / pixelSize));
+        this.sites = jumpFlood();
     }
 
     @Override
     public double interpolate(PointD point) {
-        PointD closest = getClosest(point);
-        var result = eroderResults.heightMap.get(closest);
+        return interpolate(point.x, point.y);
+    }
+
+    @Override
+    public double interpolate(double x, double y) {
+        if (nodeIndex.nodes.length == 0)
+            throw new IndexOutOfBoundsException(new PointD(x, y) + " does not lie within the convex hull");
+        x = wrapX(x);
+        y = wrapY(y);
+        int column = sites == null ? -1 : (int) Math.floor((x - minX) / pixelSize);
+        int row = sites == null ? -1 : (int) Math.floor((y - minY) / pixelSize);
+        double result = column < 0 || row < 0 || column >= columns || row >= rows ?
+                nodeIndex.heights[nodeIndex.nearest(x, y)] :
+                nearestHeight(sites[row * columns + column], x, y);
         return Double.isNaN(result) ? 0 : result;
     }
+
+    // there is no nearest node without nodes
+    @Override
+    public boolean covers(double x, double y) {
+        return nodeIndex.nodes.length > 0;
+    }
+
+    // piecewise constant, so flat everywhere but on the Voronoi edges
+    @Override
+    public double interpolateGradient(double x, double y, double[] gradient) {
+        gradient[0] = 0;
+        gradient[1] = 0;
+        return interpolate(x, y);
+    }
+
+    // the walk's vertex, unless the index finds a closer node where the walk could have stopped short of it
+    private double nearestHeight(int site, double x, double y) {
+        int vertex = nearest(site, x, y);
+        if (mesh.complete) return heights[vertex];
+        double distanceSquared = distanceSquared(vertex, x, y);
+        int[] node = new int[1];
+        double[] nodeDistanceSquared = new double[1];
+        if (nodeIndex.nearest(x, y, 1, Math.sqrt(distanceSquared), node, nodeDistanceSquared) == 1
+                && nodeDistanceSquared[0] < distanceSquared)
+            return nodeIndex.heights[node[0]];
+        return heights[vertex];
+    }
+
+    // the raster's guess, walked greedily to the closest vertex, which is exact within a complete Delaunay mesh
+    private int nearest(int site, double x, double y) {
+        double best = distanceSquared(site, x, y);
+        for (boolean improved = true; improved; ) {
+            improved = false;
+            for (int i = mesh.neighborStart[site]; i < mesh.neighborStart[site + 1]; i++) {
+                int neighbor = mesh.neighbors[i];
+                double distanceSquared = distanceSquared(neighbor, x, y);
+                if (distanceSquared < best) {
+                    best = distanceSquared;
+                    site = neighbor;
+                    improved = true;
+                }
+            }
+        }
+        return site;
+    }
+
+    /*
+     * Seeds every vertex at its pixel, then propagates the closest seed to every pixel from its neighbors at
+     * halving offsets, each pass in parallel rows
+     */
+    private int[] jumpFlood() {
+        int[] current = new int[columns * rows];
+        Arrays.fill(current, -1);
+        for (int v = 0; v < mesh.vertexCount(); v++) {
+            int column = Math.max(0, Math.min(columns - 1, (int) Math.floor((mesh.xs[v] - minX) / pixelSize)));
+            int row = Math.max(0, Math.min(rows - 1, (int) Math.floor((mesh.ys[v] - minY) / pixelSize)));
+            int pixel = row * columns + column;
+            if (current[pixel] < 0 || distanceSquared(v, center(column, minX), center(row, minY))
+                    < distanceSquared(current[pixel], center(column, minX), center(row, minY)))
+                current[pixel] = v;
+        }
+        if (mesh.vertexCount() == 0) return current;
+
+        int[] next = new int[columns * rows];
+        for (int step = Integer.highestOneBit(Math.max(columns, rows)); step >= 1; step /= 2) {
+            int[] from = current, to = next;
+            int offset = step;
+            IntStream.range(0, rows).parallel().forEach(row -> {
+                double y = center(row, minY);
+                for (int column = 0; column < columns; column++) {
+                    double x = center(column, minX);
+                    int best = from[row * columns + column];
+                    double bestDistanceSquared = best < 0 ? Double.POSITIVE_INFINITY : distanceSquared(best, x, y);
+                    for (int dy = -offset; dy <= offset; dy += offset) for (int dx = -offset; dx <= offset; dx += offset) {
+                        int r = row + dy, c = column + dx;
+                        if (r < 0 || r >= rows || c < 0 || c >= columns) continue;
+                        int site = from[r * columns + c];
+                        if (site < 0 || site == best) continue;
+                        double distanceSquared = distanceSquared(site, x, y);
+                        if (distanceSquared < bestDistanceSquared) {
+                            bestDistanceSquared = distanceSquared;
+                            best = site;
+                        }
+                    }
+                    to[row * columns + column] = best;
+                }
+            });
+            next = current;
+            current = to;
+        }
+        return current;
+    }
+
+    private double center(int index, double min) {
+        return min + (index + 0.5) * pixelSize;
+    }
+
+    private double distanceSquared(int vertex, double x, double y) {
+        double dx = mesh.xs[vertex] - x, dy = mesh.ys[vertex] - y;
+        return dx * dx + dy * dy;
+    }
 }
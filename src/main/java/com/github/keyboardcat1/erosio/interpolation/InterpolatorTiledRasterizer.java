@@ -0,0 +1,246 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryToroidal;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Graphics-based interpolation based on a 3D mesh, rasterized lazily tile by tile <br/>
+ * Faces are binned by tile up front, and a tile is only rasterized the first time one of its pixels is queried.
+ * The most recently used tiles are kept within a byte budget; evicted tiles are either discarded and rasterized
+ * again when needed, or spilled to a memory-mapped scratch file, so that huge rasters fit in a fixed heap. Resident
+ * tiles are read without locking, their recency being approximated by the number of misses before their last use.
+ */
+public class InterpolatorTiledRasterizer extends Interpolator implements AutoCloseable {
+    private static final int TILE_SIZE = 64;
+    private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * Double.BYTES;
+    private static final int TILES_PER_SEGMENT = Integer.MAX_VALUE / TILE_BYTES;
+
+    /**
+     * A pixel's dimension in erosion basis on a hypothetical screen
+     */
+    public final double pixelSize;
+    /**
+     * Mix coefficient between linear interpolation and Phong tessellation
+     */
+    public final double alpha;
+    /**
+     * The maximum number of bytes of tiles kept in memory
+     */
+    public final long cacheBytes;
+
+    private final TriangleRaster raster;
+    // the resident tiles by index, read without locking
+    private final AtomicReferenceArray<double[]> tiles;
+    // the value of the clock when every tile was last used, the clock ticking on every miss
+    private final AtomicLongArray lastUsed;
+    private final AtomicLong clock = new AtomicLong();
+    // the indices of the resident tiles, guarded by the lock along with the scratch file
+    private final int[] resident;
+    private int residentCount;
+    private final Object lock = new Object();
+    private final FileChannel scratch;
+    private final DoubleBuffer[] segments;
+    private final boolean[] spilled;
+
+    /**
+     * Graphics-based interpolation based on a 3D mesh, rasterized lazily tile by tile, discarding evicted tiles
+     *
+     * @param eroderResults The {@link EroderResults} to interpolate
+     * @param pixelSize     A pixel's dimension in erosion basis on a hypothetical screen
+     * @param alpha         Mix coefficient between linear interpolation and Phong tessellation
+     * @param cacheBytes    The maximum number of bytes of tiles kept in memory
+     */
+    public InterpolatorTiledRasterizer(EroderResults eroderResults, double pixelSize, double alpha, long cacheBytes) {
+        this(eroderResults, pixelSize, alpha, cacheBytes, (FileChannel) null);
+    }
+
+    /**
+     * Graphics-based interpolation based on a 3D mesh, rasterized lazily tile by tile, spilling evicted tiles
+     * to a scratch file deleted on {@link #close()}
+     *
+     * @param eroderResults The {@link EroderResults} to interpolate
+     * @param pixelSize     A pixel's dimension in erosion basis on a hypothetical screen
+     * @param alpha         Mix coefficient between linear interpolation and Phong tessellation
+     * @param cacheBytes    The maximum number of bytes of tiles kept in memory
+     * @param scratchFile   The file to spill evicted tiles to, created if necessary
+     * @throws IOException if the scratch file cannot be opened
+     */
+    public InterpolatorTiledRasterizer(EroderResults eroderResults, double pixelSize, double alpha, long cacheBytes,
+                                       Path scratchFile) throws IOException {
+        this(eroderResults, pixelSize, alpha, cacheBytes, FileChannel.open(scratchFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE));
+    }
+
+    private InterpolatorTiledRasterizer(EroderResults eroderResults, double pixelSize, double alpha, long cacheBytes,
+                                        FileChannel scratch) {
+        super(eroderResults);
+        this.pixelSize = pixelSize;
+        this.alpha = alpha;
+        this.cacheBytes = cacheBytes;
+        this.scratch = scratch;
+
+        RectD rectBounds = eroderResults.eroderGeometry.rectBounds;
+        PhongTessellation tessellation = new PhongTessellation(eroderResults, alpha);
+        // a toroidal geometry is rasterized up to the edges of its period, where queries wrap around
+        boolean toroidal = eroderResults.eroderGeometry instanceof EroderGeometryToroidal;
+        raster = new TriangleRaster(tessellation.triangles, tessellation.triangleCount,
+                rectBounds.min.x, rectBounds.min.y, pixelSize,
+                toroidal ? (int) Math.ceil(rectBounds.width() / pixelSize) : (int) (rectBounds.width() / pixelSize),
+                toroidal ? (int) Math.ceil(rectBounds.height() / pixelSize) : (int) (rectBounds.height() / pixelSize),
+                TILE_SIZE);
+
+        int tileCount = raster.tileCount();
+        segments = scratch == null ? null : new DoubleBuffer[(tileCount + TILES_PER_SEGMENT - 1) / TILES_PER_SEGMENT];
+        spilled = scratch == null ? null : new boolean[tileCount];
+        tiles = new AtomicReferenceArray<>(tileCount);
+        lastUsed = new AtomicLongArray(tileCount);
+        resident = new int[(int) Math.max(1, Math.min(tileCount, cacheBytes / TILE_BYTES))];
+    }
+
+    @Override
+    public double interpolate(PointD point) {
+        double height = interpolate(point.x, point.y, Double.NaN);
+        if (Double.isNaN(height))
+            throw new IndexOutOfBoundsException(point + " does not lie within the convex hull");
+        return height;
+    }
+
+    @Override
+    public double interpolate(double x, double y, double fillValue) {
+        int column = raster.column(wrapX(x)), row = raster.row(wrapY(y));
+        if (column < 0 || row < 0 || column >= raster.columns || row >= raster.rows) return fillValue;
+        double[] tile = tile((row / TILE_SIZE) * raster.tileColumns + column / TILE_SIZE);
+        if (tile == null) return fillValue;
+        double height = tile[(row % TILE_SIZE) * TILE_SIZE + column % TILE_SIZE];
+        return Double.isNaN(height) ? fillValue : height;
+    }
+
+    // differences between neighboring pixels
+    @Override
+    protected double gradientStep() {
+        return pixelSize;
+    }
+
+    @Override
+    public boolean covers(double x, double y) {
+        return !Double.isNaN(interpolate(x, y, Double.NaN));
+    }
+
+    @Override
+    protected void sampleRow(double y, double fromX, double stepX, double[] out, int offset, int count) {
+        int row = raster.row(wrapY(y));
+        if (row < 0 || row >= raster.rows) {
+            Arrays.fill(out, offset, offset + count, Double.NaN);
+            return;
+        }
+        int tileIndex = -1;
+        double[] tile = null;
+        for (int i = 0; i < count; i++) {
+            int column = raster.column(wrapX(fromX + i * stepX));
+            if (column < 0 || column >= raster.columns) {
+                out[offset + i] = Double.NaN;
+                continue;
+            }
+            int index = (row / TILE_SIZE) * raster.tileColumns + column / TILE_SIZE;
+            if (index != tileIndex) {
+                tileIndex = index;
+                tile = tile(index);
+            }
+            out[offset + i] = tile == null ? Double.NaN : tile[(row % TILE_SIZE) * TILE_SIZE + column % TILE_SIZE];
+        }
+    }
+
+    /**
+     * Closes and deletes the scratch file, if any
+     */
+    @Override
+    public void close() {
+        if (scratch == null) return;
+        try {
+            scratch.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the pixels of a tile, rasterized or read back from the scratch file if necessary, null if it is empty
+    private double[] tile(int index) {
+        if (raster.isEmpty(index)) return null;
+        double[] tile = tiles.get(index);
+        if (tile != null) {
+            // a hit only stamps the tile with the clock, which it leaves as is
+            lastUsed.lazySet(index, clock.get());
+            return tile;
+        }
+        synchronized (lock) {
+            tile = tiles.get(index);
+            if (tile != null) return tile;
+            if (spilled != null && spilled[index]) {
+                tile = new double[TILE_SIZE * TILE_SIZE];
+                segment(index / TILES_PER_SEGMENT).get((index % TILES_PER_SEGMENT) * TILE_SIZE * TILE_SIZE, tile);
+                return insert(index, tile);
+            }
+        }
+        // rasterized outside the lock, a tile raced for by two threads is rasterized twice to the same pixels
+        tile = new double[TILE_SIZE * TILE_SIZE];
+        raster.rasterizeTile(index, tile, raster.tileColumn(index), raster.tileRow(index), TILE_SIZE);
+        synchronized (lock) {
+            double[] raced = tiles.get(index);
+            return raced == null ? insert(index, tile) : raced;
+        }
+    }
+
+    // called with the lock held, evicting the least recently used tile once the budget is reached
+    private double[] insert(int index, double[] tile) {
+        if (residentCount == resident.length) {
+            int oldest = 0;
+            for (int i = 1; i < residentCount; i++)
+                if (lastUsed.get(resident[i]) < lastUsed.get(resident[oldest])) oldest = i;
+            int evicted = resident[oldest];
+            if (scratch != null) spill(evicted, tiles.get(evicted));
+            tiles.set(evicted, null);
+            resident[oldest] = index;
+        } else {
+            resident[residentCount++] = index;
+        }
+        lastUsed.set(index, clock.incrementAndGet());
+        tiles.set(index, tile);
+        return tile;
+    }
+
+    // called with the lock held
+    private void spill(int index, double[] tile) {
+        if (spilled[index]) return;
+        segment(index / TILES_PER_SEGMENT).put((index % TILES_PER_SEGMENT) * TILE_SIZE * TILE_SIZE, tile);
+        spilled[index] = true;
+    }
+
+    // called with the lock held
+    private DoubleBuffer segment(int segment) {
+        if (segments[segment] == null) {
+            try {
+                int tileCount = Math.min(TILES_PER_SEGMENT, spilled.length - segment * TILES_PER_SEGMENT);
+                segments[segment] = scratch.map(FileChannel.MapMode.READ_WRITE,
+                                (long) segment * TILES_PER_SEGMENT * TILE_BYTES, (long) tileCount * TILE_BYTES)
+                        .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return segments[segment];
+    }
+}
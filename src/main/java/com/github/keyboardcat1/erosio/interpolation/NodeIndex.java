@@ -0,0 +1,321 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryToroidal;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A flat, immutable spatial index over the nodes of an {@link EroderResults}, safe to query from many threads <br/>
+ * Nodes are bucketed into a uniform grid and stored cell by cell in parallel arrays, so that range and
+ * nearest-neighbor queries walk contiguous memory without allocating. The nodes of a {@link EroderGeometryToroidal}
+ * are indexed along with their periodic images lying within half a period of it, so that queries within the period
+ * see the nodes across its seams.
+ */
+public final class NodeIndex {
+    /**
+     * The indexed nodes, ordered cell by cell, of which the coordinates may be periodic images
+     */
+    public final PointD[] nodes;
+    /**
+     * The X coordinate of every node
+     */
+    public final double[] xs;
+    /**
+     * The Y coordinate of every node
+     */
+    public final double[] ys;
+    /**
+     * The height of every node
+     */
+    public final double[] heights;
+    /**
+     * The side length of a grid cell
+     */
+    public final double cellSize;
+
+    private final double minX;
+    private final double minY;
+    private final int columns;
+    private final int rows;
+    private final int[] cellStart;
+
+    /**
+     * A flat, immutable spatial index with cells of roughly one node each
+     *
+     * @param eroderResults The {@link EroderResults} whose nodes to index
+     */
+    public NodeIndex(EroderResults eroderResults) {
+        this(eroderResults, eroderResults.eroderGeometry.minDistance);
+    }
+
+    /**
+     * A flat, immutable spatial index
+     *
+     * @param eroderResults The {@link EroderResults} whose nodes to index
+     * @param cellSize      The side length of a grid cell
+     */
+    public NodeIndex(EroderResults eroderResults, double cellSize) {
+        // the nodes of a toroidal geometry come with their periodic images within half a period of it
+        RectD period = eroderResults.eroderGeometry instanceof EroderGeometryToroidal torus ? torus.period : null;
+        int reach = period == null ? 0 : 1;
+        int capacity = (2 * reach + 1) * (2 * reach + 1) * eroderResults.heightMap.size();
+        PointD[] unsorted = new PointD[capacity];
+        double[] unsortedXs = new double[capacity];
+        double[] unsortedYs = new double[capacity];
+        double[] unsortedHeights = new double[capacity];
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        int count = 0;
+        for (Map.Entry<PointD, Double> entry : eroderResults.heightMap.entrySet()) {
+            PointD node = entry.getKey();
+            for (int j = -reach; j <= reach; j++)
+                for (int i = -reach; i <= reach; i++) {
+                    double x = node.x, y = node.y;
+                    if (period != null) {
+                        x += i * period.width();
+                        y += j * period.height();
+                        if (x < period.min.x - period.width() / 2 || x > period.max.x + period.width() / 2
+                                || y < period.min.y - period.height() / 2 || y > period.max.y + period.height() / 2)
+                            continue;
+                    }
+                    unsorted[count] = node;
+                    unsortedXs[count] = x;
+                    unsortedYs[count] = y;
+                    unsortedHeights[count++] = entry.getValue();
+                    minX = Math.min(minX, x);
+                    minY = Math.min(minY, y);
+                    maxX = Math.max(maxX, x);
+                    maxY = Math.max(maxY, y);
+                }
+        }
+        if (count == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+
+        this.cellSize = cellSize;
+        this.minX = minX;
+        this.minY = minY;
+        this.columns = (int) ((maxX - minX) / cellSize) + 1;
+        this.rows = (int) ((maxY - minY) / cellSize) + 1;
+
+        // counting sort of the nodes by cell
+        int[] cells = new int[count];
+        this.cellStart = new int[columns * rows + 1];
+        for (int i = 0; i < count; i++) {
+            cells[i] = column(unsortedXs[i]) * rows + row(unsortedYs[i]);
+            cellStart[cells[i] + 1]++;
+        }
+        for (int c = 0; c < columns * rows; c++)
+            cellStart[c + 1] += cellStart[c];
+        int[] cursor = Arrays.copyOf(cellStart, columns * rows);
+
+        this.nodes = new PointD[count];
+        this.xs = new double[count];
+        this.ys = new double[count];
+        this.heights = new double[count];
+        for (int i = 0; i < count; i++) {
+            int slot = cursor[cells[i]]++;
+            nodes[slot] = unsorted[i];
+            xs[slot] = unsortedXs[i];
+            ys[slot] = unsortedYs[i];
+            heights[slot] = unsortedHeights[i];
+        }
+    }
+
+    /**
+     * Visits every node lying within a radius
+     *
+     * @param x       The X coordinate of the center of the search radius
+     * @param y       The Y coordinate of the center of the search radius
+     * @param radius  The radius to search
+     * @param visitor The {@link Visitor} called on every node within the radius
+     */
+    public void forEachInRange(double x, double y, double radius, Visitor visitor) {
+        double radiusSquared = radius * radius;
+        int fromColumn = Math.max(0, column(x - radius)), toColumn = Math.min(columns - 1, column(x + radius));
+        int fromRow = Math.max(0, row(y - radius)), toRow = Math.min(rows - 1, row(y + radius));
+        if (fromRow > toRow) return;
+        for (int c = fromColumn; c <= toColumn; c++) {
+            int from = cellStart[c * rows + fromRow], to = cellStart[c * rows + toRow + 1];
+            for (int i = from; i < to; i++) {
+                double dx = xs[i] - x, dy = ys[i] - y;
+                double distanceSquared = dx * dx + dy * dy;
+                if (distanceSquared <= radiusSquared) visitor.visit(i, distanceSquared);
+            }
+        }
+    }
+
+    /**
+     * Finds the indices of every node lying within a radius
+     *
+     * @param x      The X coordinate of the center of the search radius
+     * @param y      The Y coordinate of the center of the search radius
+     * @param radius The radius to search
+     * @return The indices of the nodes within the radius
+     */
+    public int[] range(double x, double y, double radius) {
+        int[][] out = {new int[16]};
+        int[] size = {0};
+        forEachInRange(x, y, radius, (node, distanceSquared) -> {
+            if (size[0] == out[0].length) out[0] = Arrays.copyOf(out[0], 2 * size[0]);
+            out[0][size[0]++] = node;
+        });
+        return Arrays.copyOf(out[0], size[0]);
+    }
+
+    /**
+     * Finds the node closest to a point, searching rings of cells outwards
+     *
+     * @param x The X coordinate of the point
+     * @param y The Y coordinate of the point
+     * @return The index of the closest node, -1 if the index is empty
+     */
+    public int nearest(double x, double y) {
+        int centerColumn = Math.max(0, Math.min(columns - 1, column(x)));
+        int centerRow = Math.max(0, Math.min(rows - 1, row(y)));
+        int best = -1;
+        for (int r = 0; ; r++) {
+            int fromColumn = centerColumn - r, toColumn = centerColumn + r;
+            int fromRow = centerRow - r, toRow = centerRow + r;
+            for (int c = Math.max(0, fromColumn); c <= Math.min(columns - 1, toColumn); c++) {
+                if (c == fromColumn || c == toColumn) {
+                    best = closest(c, Math.max(0, fromRow), Math.min(rows - 1, toRow), x, y, best);
+                } else {
+                    if (fromRow >= 0) best = closest(c, fromRow, fromRow, x, y, best);
+                    if (toRow < rows) best = closest(c, toRow, toRow, x, y, best);
+                }
+            }
+
+            // lower bound on the distance to any cell beyond this ring
+            double bound = Double.POSITIVE_INFINITY;
+            if (fromColumn > 0) bound = Math.min(bound, x - (minX + fromColumn * cellSize));
+            if (toColumn < columns - 1) bound = Math.min(bound, minX + (toColumn + 1) * cellSize - x);
+            if (fromRow > 0) bound = Math.min(bound, y - (minY + fromRow * cellSize));
+            if (toRow < rows - 1) bound = Math.min(bound, minY + (toRow + 1) * cellSize - y);
+            if (bound == Double.POSITIVE_INFINITY) return best;
+            bound = Math.max(bound, 0);
+            if (best >= 0 && distanceSquared(best, x, y) <= bound * bound) return best;
+        }
+    }
+
+    /**
+     * Finds the k nodes closest to a point within a radius, searching rings of cells outwards while keeping the
+     * closest nodes found so far in a bounded max-heap
+     *
+     * @param x                The X coordinate of the point
+     * @param y                The Y coordinate of the point
+     * @param k                The maximum number of nodes to find
+     * @param radius           The radius to search, possibly infinite
+     * @param nodes            The array receiving the indices of the closest nodes, in no particular order
+     * @param distancesSquared The array receiving the squared distance between each of these nodes and the point
+     * @return The number of nodes found, k unless fewer nodes lie within the radius
+     */
+    public int nearest(double x, double y, int k, double radius, int[] nodes, double[] distancesSquared) {
+        if (k <= 0 || nodes.length < k || distancesSquared.length < k)
+            throw new IllegalArgumentException("k must be positive and nodes and distancesSquared must hold k nodes, got " + k);
+        double radiusSquared = radius * radius;
+        int centerColumn = Math.max(0, Math.min(columns - 1, column(x)));
+        int centerRow = Math.max(0, Math.min(rows - 1, row(y)));
+        int size = 0;
+        for (int r = 0; ; r++) {
+            int fromColumn = centerColumn - r, toColumn = centerColumn + r;
+            int fromRow = centerRow - r, toRow = centerRow + r;
+            for (int c = Math.max(0, fromColumn); c <= Math.min(columns - 1, toColumn); c++) {
+                if (c == fromColumn || c == toColumn) {
+                    size = closest(c, Math.max(0, fromRow), Math.min(rows - 1, toRow), x, y, k, radiusSquared, nodes, distancesSquared, size);
+                } else {
+                    if (fromRow >= 0) size = closest(c, fromRow, fromRow, x, y, k, radiusSquared, nodes, distancesSquared, size);
+                    if (toRow < rows) size = closest(c, toRow, toRow, x, y, k, radiusSquared, nodes, distancesSquared, size);
+                }
+            }
+
+            // lower bound on the distance to any cell beyond this ring
+            double bound = Double.POSITIVE_INFINITY;
+            if (fromColumn > 0) bound = Math.min(bound, x - (minX + fromColumn * cellSize));
+            if (toColumn < columns - 1) bound = Math.min(bound, minX + (toColumn + 1) * cellSize - x);
+            if (fromRow > 0) bound = Math.min(bound, y - (minY + fromRow * cellSize));
+            if (toRow < rows - 1) bound = Math.min(bound, minY + (toRow + 1) * cellSize - y);
+            if (bound == Double.POSITIVE_INFINITY) return size;
+            bound = Math.max(bound, 0);
+            if (bound * bound > radiusSquared || size == k && distancesSquared[0] <= bound * bound) return size;
+        }
+    }
+
+    /*
+     * Pushes the nodes of a run of cells within a column that lie within the radius onto the max-heap of the k
+     * closest nodes, returning its size
+     */
+    private int closest(int column, int fromRow, int toRow, double x, double y,
+                        int k, double radiusSquared, int[] nodes, double[] distancesSquared, int size) {
+        for (int i = cellStart[column * rows + fromRow], end = cellStart[column * rows + toRow + 1]; i < end; i++) {
+            double distanceSquared = distanceSquared(i, x, y);
+            if (distanceSquared > radiusSquared) continue;
+            int slot;
+            if (size < k) {
+                // sift up from the new leaf
+                slot = size++;
+                while (slot > 0 && distancesSquared[(slot - 1) / 2] < distanceSquared) {
+                    nodes[slot] = nodes[(slot - 1) / 2];
+                    distancesSquared[slot] = distancesSquared[(slot - 1) / 2];
+                    slot = (slot - 1) / 2;
+                }
+            } else if (distanceSquared < distancesSquared[0]) {
+                // sift down from the evicted root
+                slot = 0;
+                for (int child = 1; child < k; slot = child, child = 2 * child + 1) {
+                    if (child + 1 < k && distancesSquared[child + 1] > distancesSquared[child]) child++;
+                    if (distancesSquared[child] <= distanceSquared) break;
+                    nodes[slot] = nodes[child];
+                    distancesSquared[slot] = distancesSquared[child];
+                }
+            } else continue;
+            nodes[slot] = i;
+            distancesSquared[slot] = distanceSquared;
+        }
+        return size;
+    }
+
+    // the closest node among the best so far and the nodes of a run of cells within a column
+    private int closest(int column, int fromRow, int toRow, double x, double y, int best) {
+        double bestDistanceSquared = best < 0 ? Double.POSITIVE_INFINITY : distanceSquared(best, x, y);
+        for (int i = cellStart[column * rows + fromRow], end = cellStart[column * rows + toRow + 1]; i < end; i++) {
+            double distanceSquared = distanceSquared(i, x, y);
+            if (distanceSquared < bestDistanceSquared) {
+                bestDistanceSquared = distanceSquared;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private double distanceSquared(int node, double x, double y) {
+        double dx = xs[node] - x, dy = ys[node] - y;
+        return dx * dx + dy * dy;
+    }
+
+    private int column(double x) {
+        return (int) Math.floor((x - minX) / cellSize);
+    }
+
+    private int row(double y) {
+        return (int) Math.floor((y - minY) / cellSize);
+    }
+
+    /**
+     * A callback on the nodes found by a range query
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        /**
+         * Visits a node
+         *
+         * @param node            The index of the node in {@link NodeIndex#nodes}
+         * @param distanceSquared The squared distance between the node and the query point
+         */
+        void visit(int node, double distanceSquared);
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.TriangleMesh;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.stream.IntStream;
+
+/**
+ * The Phong tessellation of every face of a {@link TriangleMesh} into six sub-triangles, stored as a flat triangle soup
+ * of {@link #STRIDE} coordinates per triangle: (x, y, z) for each of its three vertices <br/>
+ * Faces are tessellated in parallel chunks, each reusing a single scratch array.
+ */
+final class PhongTessellation {
+    static final int STRIDE = 9;
+    private static final int SUB_TRIANGLES = 6;
+    private static final int CHUNK_SIZE = 1024;
+
+    // offsets in the scratch array: the vertices, their normals, the vertices and edge terms in the unit cube,
+    // then the points P1, P2, P3 and P0
+    private static final int V = 0, N = 9, S = 18, E = 27, P = 36, SCRATCH = 48;
+
+    final double[] triangles;
+    final int triangleCount;
+
+    private final double scale;
+    private final double[] min;
+    private final double alpha;
+
+    PhongTessellation(EroderResults eroderResults, double alpha) {
+        this.alpha = alpha;
+
+        RectD rectBounds = eroderResults.eroderGeometry.rectBounds;
+        scale = Math.max(Math.max(rectBounds.width(), rectBounds.height()),eroderResults.maxHeight-eroderResults.minHeight);
+        min = new double[]{rectBounds.min.x, rectBounds.min.y, eroderResults.minHeight};
+
+        TriangleMesh mesh = eroderResults.eroderGeometry.mesh();
+        double[] heights = eroderResults.meshHeights();
+        double[] normals = eroderResults.meshNormals();
+
+        int faceCount = mesh.triangleCount();
+        triangleCount = faceCount * SUB_TRIANGLES;
+        triangles = new double[triangleCount * STRIDE];
+        IntStream.range(0, (faceCount + CHUNK_SIZE - 1) / CHUNK_SIZE).parallel().forEach(chunk -> {
+            double[] scratch = new double[SCRATCH];
+            for (int f = chunk * CHUNK_SIZE; f < Math.min(faceCount, (chunk + 1) * CHUNK_SIZE); f++)
+                tessellate(mesh, heights, normals, f, scratch);
+        });
+    }
+
+    private void tessellate(TriangleMesh mesh, double[] heights, double[] normals, int face, double[] s) {
+        for (int k = 0; k < 3; k++) {
+            int vertex = mesh.triangles[3 * face + k];
+            s[V + 3 * k] = mesh.xs[vertex];
+            s[V + 3 * k + 1] = mesh.ys[vertex];
+            s[V + 3 * k + 2] = heights[vertex];
+            System.arraycopy(normals, 3 * vertex, s, N + 3 * k, 3);
+            for (int c = 0; c < 3; c++)
+                s[S + 3 * k + c] = (s[V + 3 * k + c] - min[c]) * (2 / scale) - 1;
+        }
+        // sij, sjk and ski
+        edge(s, 0, 1, E);
+        edge(s, 1, 2, E + 3);
+        edge(s, 2, 0, E + 6);
+
+        point(s, .5, .5, 0, P);
+        point(s, 0, .5, .5, P + 3);
+        point(s, .5, 0, .5, P + 6);
+        point(s, 1/3D, 1/3D, 1/3D, P + 9);
+
+        int t = face * SUB_TRIANGLES;
+        put(t, s, V, P, P + 9);
+        put(t + 1, s, P, V + 3, P + 9);
+        put(t + 2, s, V + 3, P + 3, P + 9);
+        put(t + 3, s, P + 3, V + 6, P + 9);
+        put(t + 4, s, V + 6, P + 6, P + 9);
+        put(t + 5, s, P + 6, V, P + 9);
+    }
+
+    // the sum of the projections of each endpoint of an edge onto the tangent plane of the other
+    private static void edge(double[] s, int i, int j, int out) {
+        int si = S + 3 * i, sj = S + 3 * j, ni = N + 3 * i, nj = N + 3 * j;
+        double di = (s[sj] - s[si]) * s[ni] + (s[sj + 1] - s[si + 1]) * s[ni + 1] + (s[sj + 2] - s[si + 2]) * s[ni + 2];
+        double dj = (s[si] - s[sj]) * s[nj] + (s[si + 1] - s[sj + 1]) * s[nj + 1] + (s[si + 2] - s[sj + 2]) * s[nj + 2];
+        for (int c = 0; c < 3; c++)
+            s[out + c] = (s[sj + c] - s[ni + c] * di) + (s[si + c] - s[nj + c] * dj);
+    }
+
+    // the point of barycentric coordinates (u, v, w) on the Phong patch, mixed with the flat triangle by alpha
+    private void point(double[] s, double u, double v, double w, int out) {
+        for (int c = 0; c < 3; c++) {
+            double sP = s[S + c] * (u*u) + s[S + 3 + c] * (v*v) + s[S + 6 + c] * (w*w)
+                    + s[E + c] * (u*v) + s[E + 3 + c] * (v*w) + s[E + 6 + c] * (w*u);
+            double sQ = s[S + c] * u + s[S + 3 + c] * v + s[S + 6 + c] * w;
+            s[out + c] = (sP * alpha + sQ * (1-alpha) + 1) * (scale/2) + min[c];
+        }
+    }
+
+    private void put(int triangle, double[] s, int a, int b, int c) {
+        int i = triangle * STRIDE;
+        System.arraycopy(s, a, triangles, i, 3);
+        System.arraycopy(s, b, triangles, i + 3, 3);
+        System.arraycopy(s, c, triangles, i + 6, 3);
+    }
+}
@@ -1,14 +1,9 @@
 package com.github.keyboardcat1.erosio.interpolation;
 
 import com.github.keyboardcat1.erosio.EroderResults;
-import org.kynosarges.tektosyne.QuadTree;
-import org.kynosarges.tektosyne.geometry.GeoUtils;
 import org.kynosarges.tektosyne.geometry.PointD;
-import org.kynosarges.tektosyne.geometry.RectD;
 
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -19,8 +14,10 @@ public abstract class SpontaneousInterpolator extends Interpolator{
      * The {@link EroderResults} to interpolate
      */
     protected final EroderResults eroderResults;
-
-    private QuadTree<Double> quadTree;
+    /**
+     * The spatial index over the nodes of {@link #eroderResults}, built eagerly and safe to query concurrently
+     */
+    protected final NodeIndex nodeIndex;
 
     /**
      * The base interpolation class
@@ -30,19 +27,21 @@ public abstract class SpontaneousInterpolator extends Interpolator{
     public SpontaneousInterpolator(EroderResults eroderResults) {
         super(eroderResults);
         this.eroderResults = eroderResults;
+        this.nodeIndex = new NodeIndex(eroderResults);
     }
 
     /**
-     * Finds all sample points lying within a radius
+     * Finds all sample points lying within a radius <br/>
+     * Allocates a new {@link Set}, prefer {@link NodeIndex#forEachInRange} on {@link #nodeIndex} in hot paths
      *
      * @param point  a {@link PointD} indicating the center of the search radius
      * @param radius the radius to search
-     * @return a {@link Map} containing all {@link PointD} lying within the radius
+     * @return a {@link Set} containing all {@link PointD} lying within the radius
      */
     protected final Set<PointD> getRange(PointD point, double radius) {
-        if (Objects.isNull(this.quadTree))
-            this.quadTree = new QuadTree<>(RectD.circumscribe(eroderResults.eroderGeometry.boundingPolygon), eroderResults.heightMap);
-        return quadTree.findRange(point, radius).keySet();
+        Set<PointD> out = new HashSet<>();
+        nodeIndex.forEachInRange(point.x, point.y, radius, (node, distanceSquared) -> out.add(nodeIndex.nodes[node]));
+        return out;
     }
 
     /**
@@ -52,7 +51,6 @@ public abstract class SpontaneousInterpolator extends Interpolator{
      * @return the closest sample point to the given point
      */
     protected final PointD getClosest(PointD point) {
-        List<PointD> neighbors = getRange(point, eroderResults.eroderGeometry.minDistance*1.5).stream().toList();
-        return neighbors.get(GeoUtils.nearestPoint(neighbors, point));
+        return nodeIndex.nodes[nodeIndex.nearest(point.x, point.y)];
     }
 }
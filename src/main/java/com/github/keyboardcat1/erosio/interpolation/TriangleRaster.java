@@ -0,0 +1,166 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import java.util.Arrays;
+
+/**
+ * The scan conversion of a triangle soup onto a pixel grid, binned into square tiles that can be rasterized
+ * independently and concurrently <br/>
+ * Pixel (column, row) is sampled at its center, and pixels not covered by any triangle are left as {@link Double#NaN}.
+ */
+final class TriangleRaster {
+    final double minX;
+    final double minY;
+    final double pixelSize;
+    final int columns;
+    final int rows;
+    final int tileSize;
+    final int tileColumns;
+    final int tileRows;
+
+    private final double[] triangles;
+    private final int[] binStart;
+    private final int[] bins;
+
+    /**
+     * @param triangles     A triangle soup laid out as in {@link PhongTessellation}
+     * @param triangleCount The number of triangles in the soup
+     * @param minX          The X coordinate of the lower left corner of pixel (0, 0)
+     * @param minY          The Y coordinate of the lower left corner of pixel (0, 0)
+     * @param pixelSize     The side length of a pixel
+     * @param columns       The number of pixels on the x-axis
+     * @param rows          The number of pixels on the y-axis
+     * @param tileSize      The side length of a tile, in pixels
+     */
+    TriangleRaster(double[] triangles, int triangleCount, double minX, double minY, double pixelSize,
+                   int columns, int rows, int tileSize) {
+        this.triangles = triangles;
+        this.minX = minX;
+        this.minY = minY;
+        this.pixelSize = pixelSize;
+        this.columns = columns;
+        this.rows = rows;
+        this.tileSize = tileSize;
+        this.tileColumns = (columns + tileSize - 1) / tileSize;
+        this.tileRows = (rows + tileSize - 1) / tileSize;
+
+        // bin every triangle into the tiles its bounding box overlaps, keeping the soup's order within each bin
+        int[] bounds = new int[4];
+        binStart = new int[tileColumns * tileRows + 1];
+        for (int t = 0; t < triangleCount; t++) {
+            if (!tileBounds(t, bounds)) continue;
+            for (int ty = bounds[1]; ty <= bounds[3]; ty++) for (int tx = bounds[0]; tx <= bounds[2]; tx++)
+                binStart[ty * tileColumns + tx + 1]++;
+        }
+        for (int tile = 0; tile < tileColumns * tileRows; tile++)
+            binStart[tile + 1] += binStart[tile];
+        int[] cursor = Arrays.copyOf(binStart, tileColumns * tileRows);
+        bins = new int[binStart[tileColumns * tileRows]];
+        for (int t = 0; t < triangleCount; t++) {
+            if (!tileBounds(t, bounds)) continue;
+            for (int ty = bounds[1]; ty <= bounds[3]; ty++) for (int tx = bounds[0]; tx <= bounds[2]; tx++)
+                bins[cursor[ty * tileColumns + tx]++] = t;
+        }
+    }
+
+    int tileCount() {
+        return tileColumns * tileRows;
+    }
+
+    boolean isEmpty(int tile) {
+        return binStart[tile] == binStart[tile + 1];
+    }
+
+    int tileColumn(int tile) {
+        return (tile % tileColumns) * tileSize;
+    }
+
+    int tileRow(int tile) {
+        return (tile / tileColumns) * tileSize;
+    }
+
+    int tileWidth(int tile) {
+        return Math.min(tileSize, columns - tileColumn(tile));
+    }
+
+    int tileHeight(int tile) {
+        return Math.min(tileSize, rows - tileRow(tile));
+    }
+
+    /**
+     * Rasterizes every triangle overlapping a tile, pixel (column, row) being written at
+     * out[(row - originRow) * stride + column - originColumn]
+     */
+    void rasterizeTile(int tile, double[] out, int originColumn, int originRow, int stride) {
+        int fromColumn = tileColumn(tile), toColumn = fromColumn + tileWidth(tile);
+        int fromRow = tileRow(tile), toRow = fromRow + tileHeight(tile);
+        for (int row = fromRow; row < toRow; row++) {
+            int offset = (row - originRow) * stride - originColumn;
+            Arrays.fill(out, offset + fromColumn, offset + toColumn, Double.NaN);
+        }
+        for (int b = binStart[tile]; b < binStart[tile + 1]; b++)
+            rasterize(bins[b], out, originColumn, originRow, stride, fromColumn, fromRow, toColumn, toRow);
+    }
+
+    private void rasterize(int triangle, double[] out, int originColumn, int originRow, int stride,
+                           int clipFromColumn, int clipFromRow, int clipToColumn, int clipToRow) {
+        int i = triangle * PhongTessellation.STRIDE;
+        double ax = triangles[i], ay = triangles[i + 1], az = triangles[i + 2];
+        double bx = triangles[i + 3], by = triangles[i + 4], bz = triangles[i + 5];
+        double cx = triangles[i + 6], cy = triangles[i + 7], cz = triangles[i + 8];
+
+        int fromColumn = Math.max(clipFromColumn, column(Math.min(ax, Math.min(bx, cx))));
+        int toColumn = Math.min(clipToColumn - 1, column(Math.max(ax, Math.max(bx, cx))));
+        int fromRow = Math.max(clipFromRow, row(Math.min(ay, Math.min(by, cy))));
+        int toRow = Math.min(clipToRow - 1, row(Math.max(ay, Math.max(by, cy))));
+
+        double abc = (bx - ax) * (cy - ay) - (cx - ax) * (by - ay);
+        double bca = (cx - bx) * (ay - by) - (ax - bx) * (cy - by);
+        double cab = (ax - cx) * (by - cy) - (bx - cx) * (ay - cy);
+
+        // edge functions evaluated at the first pixel of each row, then stepped incrementally along it
+        double abStep = pixelSize * (by - ay), bcStep = pixelSize * (cy - by), caStep = pixelSize * (ay - cy);
+        double px = pixelSize * fromColumn + minX + pixelSize / 2;
+        for (int row = fromRow; row <= toRow; row++) {
+            double py = pixelSize * row + minY + pixelSize / 2;
+            double ABxAp = (bx - ax) * (py - ay) - (px - ax) * (by - ay);
+            double BCxBp = (cx - bx) * (py - by) - (px - bx) * (cy - by);
+            double CAxCp = (ax - cx) * (py - cy) - (px - cx) * (ay - cy);
+            int offset = (row - originRow) * stride - originColumn;
+            for (int column = fromColumn; column <= toColumn; column++,
+                    ABxAp -= abStep, BCxBp -= bcStep, CAxCp -= caStep) {
+                if (ABxAp > 0 && BCxBp > 0 && CAxCp > 0) {
+                    double w = ABxAp / abc;
+                    double v = CAxCp / cab;
+                    double u = BCxBp / bca;
+                    out[offset + column] = u * az + v * bz + w * cz;
+                }
+            }
+        }
+    }
+
+    // the range of tiles overlapped by a triangle's bounding box, false if it lies outside the grid
+    private boolean tileBounds(int triangle, int[] out) {
+        int i = triangle * PhongTessellation.STRIDE;
+        double ax = triangles[i], ay = triangles[i + 1];
+        double bx = triangles[i + 3], by = triangles[i + 4];
+        double cx = triangles[i + 6], cy = triangles[i + 7];
+        int fromColumn = Math.max(0, column(Math.min(ax, Math.min(bx, cx))));
+        int toColumn = Math.min(columns - 1, column(Math.max(ax, Math.max(bx, cx))));
+        int fromRow = Math.max(0, row(Math.min(ay, Math.min(by, cy))));
+        int toRow = Math.min(rows - 1, row(Math.max(ay, Math.max(by, cy))));
+        if (fromColumn > toColumn || fromRow > toRow) return false;
+        out[0] = fromColumn / tileSize;
+        out[1] = fromRow / tileSize;
+        out[2] = toColumn / tileSize;
+        out[3] = toRow / tileSize;
+        return true;
+    }
+
+    int column(double x) {
+        return (int) Math.floor((x - minX) / pixelSize);
+    }
+
+    int row(double y) {
+        return (int) Math.floor((y - minY) / pixelSize);
+    }
+}
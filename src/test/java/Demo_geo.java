@@ -2,16 +2,14 @@ import com.github.keyboardcat1.erosio.Eroder;
 import com.github.keyboardcat1.erosio.EroderGeometry;
 import com.github.keyboardcat1.erosio.EroderResults;
 import com.github.keyboardcat1.erosio.EroderSettings;
+import com.github.keyboardcat1.erosio.export.HeightmapExporter;
 import com.github.keyboardcat1.erosio.geometries.EroderGeometryNatural;
 import com.github.keyboardcat1.erosio.interpolation.Interpolator;
 import com.github.keyboardcat1.erosio.interpolation.InterpolatorCPURasterizer;
 import org.kynosarges.tektosyne.geometry.RectD;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 
 public class Demo_geo {
     public static void main(String[] args) throws IOException {
@@ -31,18 +29,9 @@ public class Demo_geo {
         Interpolator interpolator = new InterpolatorCPURasterizer(results, 100, 0);
 
         double scale = 512/bounds.width();
-        BufferedImage image = new BufferedImage((int)(scale*bounds.width()), (int)(scale* bounds.height()), BufferedImage.TYPE_INT_RGB);
-        for (int x = 0; x < (int)(scale*bounds.width()); x++) for (int y = 0; y < (int)(scale* bounds.height()); y++) {
-            try {
-                double value = interpolator.interpolate(x/scale+bounds.min.x, y/scale+bounds.min.y) - results.minHeight;
-                int intensity = (int) (255 * value / (results.maxHeight - results.minHeight+1));
-                image.setRGB(x, y, new Color(intensity, intensity, intensity).getRGB());
-            } catch (IndexOutOfBoundsException e) {
-                image.setRGB(x,y, new Color(128, 0,0).getRGB());
-            }
-        }
-
-        String path = "out.png";
-        ImageIO.write(image, "PNG", new File(path));
+        int width = (int)(scale*bounds.width());
+        int height = (int)(scale* bounds.height());
+        new HeightmapExporter(interpolator, bounds, width, height)
+                .writePNG(Path.of("out.png"), results.minHeight, results.maxHeight);
     }
 }
\ No newline at end of file
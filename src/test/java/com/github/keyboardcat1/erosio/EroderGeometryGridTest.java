@@ -0,0 +1,75 @@
+package com.github.keyboardcat1.erosio;
+
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryGrid;
+import org.junit.jupiter.api.Test;
+import org.kynosarges.tektosyne.geometry.GeoUtils;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.PolygonLocation;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// in the package of EroderGeometry, whose areaMap is protected
+class EroderGeometryGridTest {
+    private static final double EPSILON = 1E-12;
+
+    @Test
+    void rectangleMatchesSerialBuild() {
+        // several bands of columns, so that adjacency crosses band borders
+        assertMatchesSerialBuild(EroderGeometry.RectDtoPolygon(new RectD(-150, -40, 150, 40)), 1.5);
+    }
+
+    @Test
+    void concavePolygonMatchesSerialBuild() {
+        PointD[] polygon = {new PointD(0, 0), new PointD(300, 0), new PointD(300, 120), new PointD(150, 40),
+                new PointD(0, 120)};
+        assertMatchesSerialBuild(polygon, 1.7);
+    }
+
+    private static void assertMatchesSerialBuild(PointD[] polygon, double minDistance) {
+        EroderGeometryGrid grid = new EroderGeometryGrid(polygon, minDistance);
+        Serial serial = new Serial(polygon, minDistance);
+        assertEquals(serial.graph, grid.graph);
+        assertEquals(serial.areaMap, grid.areaMap);
+        assertEquals(serial.boundary, grid.boundary);
+    }
+
+    // the node by node construction the banded one replaces
+    private static final class Serial {
+        final Map<PointD, Set<PointD>> graph = new HashMap<>();
+        final Map<PointD, Double> areaMap = new HashMap<>();
+        final Set<PointD> boundary = new HashSet<>();
+
+        Serial(PointD[] boundingPolygon, double minDistance) {
+            RectD bounds = RectD.circumscribe(boundingPolygon);
+            minDistance = minDistance + EPSILON;
+            int horizontalCount = (int) (bounds.width() / minDistance);
+            int verticalCount = (int) (bounds.height() / minDistance);
+            double horizontalMargin = (bounds.width() - horizontalCount * minDistance) / 2;
+            double verticalMargin = (bounds.height() - verticalCount * minDistance) / 2;
+            for (int x = 0; x <= horizontalCount; x++) for (int y = 0; y <= verticalCount; y++) {
+                PointD node = new PointD(x * minDistance + horizontalMargin, y * minDistance + verticalMargin).add(bounds.min);
+                if (GeoUtils.pointInPolygon(node, boundingPolygon) == PolygonLocation.OUTSIDE) continue;
+                graph.putIfAbsent(node, new HashSet<>(4));
+                for (int dx = -1; dx <= 1; dx++) for (int dy = -1; dy <= 1; dy++) {
+                    if (dx == 0 && dy == 0) continue;
+                    if (dx * dy == 1) continue;
+                    PointD neighbor = new PointD((x + dx) * minDistance + horizontalMargin, (y + dy) * minDistance + verticalMargin).add(bounds.min);
+                    if (GeoUtils.pointInPolygon(neighbor, boundingPolygon) == PolygonLocation.OUTSIDE) continue;
+                    graph.get(node).add(neighbor);
+                    graph.putIfAbsent(neighbor, new HashSet<>(4));
+                    graph.get(neighbor).add(node);
+                }
+            }
+            for (Map.Entry<PointD, Set<PointD>> entry : graph.entrySet()) {
+                areaMap.put(entry.getKey(), minDistance * minDistance);
+                if (entry.getValue().size() < 6) boundary.add(entry.getKey());
+            }
+        }
+    }
+}
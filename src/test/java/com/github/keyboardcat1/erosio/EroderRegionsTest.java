@@ -0,0 +1,72 @@
+package com.github.keyboardcat1.erosio;
+
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryJittered;
+import com.github.keyboardcat1.erosio.interpolation.InterpolatorIDW;
+import org.junit.jupiter.api.Test;
+import org.kynosarges.tektosyne.geometry.PointD;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EroderRegionsTest {
+    private static EroderRegions regions(int maxRegions) {
+        EroderSettings settings = new EroderSettings((p, t) -> 1.0, p -> 0.0, p -> 2.0, 0.5, (p, h) -> 30.0,
+                1, 10, 1E-2);
+        return new EroderRegions(settings,
+                rect -> new EroderGeometryJittered(EroderGeometry.RectDtoPolygon(rect), 2, 3),
+                results -> new InterpolatorIDW(results, 2, 6), 24, 8, maxRegions);
+    }
+
+    @Test
+    void heightsAreContinuousAcrossBorders() {
+        try (EroderRegions regions = regions(16)) {
+            // the nodes a region shares with a neighbor it waited on keep the neighbor's heights
+            EroderResults first = regions.regionResults(0, 0).join(), second = regions.regionResults(1, 0).join();
+            int shared = 0;
+            for (Map.Entry<PointD, Double> entry : second.heightMap.entrySet()) {
+                PointD node = entry.getKey();
+                if (regions.regionOf(node.x) != 0 || regions.regionOf(node.y) != 0) continue;
+                assertEquals(first.heightMap.get(node), entry.getValue(), 0, "at " + node);
+                shared++;
+            }
+            assertTrue(shared > 0, "no node is shared across the border");
+
+            // across the blend, the heights step no more than within a region, where a seam would jump
+            double step = 0.05;
+            for (double across : new double[]{5, 13, 30}) {
+                double seamX = 0, innerX = 0, seamY = 0, innerY = 0;
+                for (double along = 4; along < 44; along += step) {
+                    double differenceX = Math.abs(regions.interpolate(along + step, across) - regions.interpolate(along, across));
+                    double differenceY = Math.abs(regions.interpolate(across, along + step) - regions.interpolate(across, along));
+                    boolean seam = Math.abs(along - 24) < 4;
+                    if (seam) {
+                        seamX = Math.max(seamX, differenceX);
+                        seamY = Math.max(seamY, differenceY);
+                    } else {
+                        innerX = Math.max(innerX, differenceX);
+                        innerY = Math.max(innerY, differenceY);
+                    }
+                }
+                assertTrue(seamX <= 2 * innerX, "step of " + seamX + " across x = 24 at y = " + across);
+                assertTrue(seamY <= 2 * innerY, "step of " + seamY + " across y = 24 at x = " + across);
+            }
+        }
+    }
+
+    @Test
+    void evictedRegionsErodeAgain() {
+        try (EroderRegions regions = regions(4)) {
+            EroderResults before = regions.regionResults(1, 1).join();
+            Map<PointD, Double> heights = new HashMap<>(before.heightMap);
+            // far away regions, along with the neighbors they wait on, push the first ones out
+            for (int i = 10; i < 16; i++)
+                regions.regionResults(i, i).join();
+            EroderResults after = regions.regionResults(1, 1).join();
+            assertTrue(before != after, "the region was not evicted");
+            assertEquals(heights, after.heightMap);
+        }
+    }
+}
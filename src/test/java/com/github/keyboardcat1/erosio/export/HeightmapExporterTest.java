@@ -0,0 +1,118 @@
+package com.github.keyboardcat1.erosio.export;
+
+import com.github.keyboardcat1.erosio.interpolation.Interpolator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HeightmapExporterTest {
+    // more columns than a tile, so that the GeoTIFF holds several
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+
+    @TempDir
+    Path directory;
+
+    private static HeightmapExporter exporter() {
+        Interpolator slope = new Interpolator() {
+            @Override
+            public double interpolate(PointD point) {
+                return point.x;
+            }
+        };
+        return new HeightmapExporter(slope, new RectD(0, 0, WIDTH, HEIGHT), WIDTH, HEIGHT);
+    }
+
+    @Test
+    void pngHeader() throws IOException {
+        Path path = directory.resolve("heights.png");
+        exporter().writePNG(path, 0, WIDTH);
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path));
+
+        byte[] signature = new byte[8];
+        file.get(signature);
+        assertArrayEquals(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}, signature);
+        assertEquals(13, file.getInt());
+        assertEquals("IHDR", type(file));
+        assertEquals(WIDTH, file.getInt());
+        assertEquals(HEIGHT, file.getInt());
+        assertEquals(16, file.get(), "bit depth");
+        assertEquals(0, file.get(), "grayscale color type");
+        assertEquals(0, file.get(), "compression");
+        assertEquals(0, file.get(), "filter");
+        assertEquals(0, file.get(), "interlace");
+        file.position(file.limit() - 8);
+        assertEquals("IEND", type(file));
+
+        BufferedImage image = ImageIO.read(path.toFile());
+        assertEquals(WIDTH, image.getWidth());
+        assertEquals(HEIGHT, image.getHeight());
+        assertEquals(16, image.getColorModel().getComponentSize(0));
+    }
+
+    @Test
+    void geoTIFFHeader() throws IOException {
+        Path path = directory.resolve("heights.tif");
+        exporter().writeGeoTIFF(path);
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+
+        assertEquals('I', file.get());
+        assertEquals('I', file.get());
+        assertEquals(42, file.getShort());
+        int directory = file.getInt();
+        int entryCount = file.getShort(directory);
+        int tileCount = ((WIDTH + HeightmapExporter.TILE_SIZE - 1) / HeightmapExporter.TILE_SIZE)
+                * ((HEIGHT + HeightmapExporter.TILE_SIZE - 1) / HeightmapExporter.TILE_SIZE);
+        long tileBytes = 4L * HeightmapExporter.TILE_SIZE * HeightmapExporter.TILE_SIZE;
+        int previousTag = 0;
+        for (int i = 0; i < entryCount; i++) {
+            int entry = directory + 2 + 12 * i;
+            int tag = file.getShort(entry) & 0xFFFF, count = file.getInt(entry + 4), value = file.getInt(entry + 8);
+            // entries must be sorted by tag
+            assertTrue(tag > previousTag, "tag " + tag + " after " + previousTag);
+            previousTag = tag;
+            switch (tag) {
+                case 256 -> assertEquals(WIDTH, value, "ImageWidth");
+                case 257 -> assertEquals(HEIGHT, value, "ImageLength");
+                case 258 -> assertEquals(32, value & 0xFFFF, "BitsPerSample");
+                case 322, 323 -> assertEquals(HeightmapExporter.TILE_SIZE, value, "TileWidth and TileLength");
+                case 324 -> {
+                    assertEquals(tileCount, count, "TileOffsets");
+                    for (int tile = 0; tile < tileCount; tile++)
+                        assertEquals(file.limit() - (tileCount - tile) * tileBytes, file.getInt(value + 4 * tile),
+                                "offset of tile " + tile);
+                }
+                case 325 -> {
+                    assertEquals(tileCount, count, "TileByteCounts");
+                    for (int tile = 0; tile < tileCount; tile++)
+                        assertEquals(tileBytes, file.getInt(value + 4 * tile), "byte count of tile " + tile);
+                }
+                case 339 -> assertEquals(3, value & 0xFFFF, "floating point SampleFormat");
+                default -> {
+                }
+            }
+        }
+        // the first pixel of the second tile, at the center of column TILE_SIZE
+        assertEquals(HeightmapExporter.TILE_SIZE + 0.5f, file.getFloat((int) (file.limit() - (tileCount - 1) * tileBytes)));
+    }
+
+    private static String type(ByteBuffer file) {
+        byte[] type = new byte[4];
+        file.get(type);
+        return new String(type, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.keyboardcat1.erosio.export;
+
+import com.github.keyboardcat1.erosio.Eroder;
+import com.github.keyboardcat1.erosio.EroderGeometry;
+import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.EroderSettings;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryJittered;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MeshExporterTest {
+    @TempDir
+    Path directory;
+
+    private static EroderResults erode() {
+        EroderSettings settings = new EroderSettings((p, t) -> 1.0, p -> 0.0, p -> 2.0, 0.5, (p, h) -> 30.0,
+                1, 10, 1E-2);
+        return Eroder.erode(settings, new EroderGeometryJittered(
+                EroderGeometry.RectDtoPolygon(new RectD(-16, -16, 16, 16)), 2, 3));
+    }
+
+    @Test
+    void normalsAreUnit() {
+        EroderResults results = erode();
+        for (MeshExporter exporter : new MeshExporter[]{new MeshExporter(results), new MeshExporter(results, 0.75)})
+            for (int v = 0; v < exporter.vertexCount(); v++) {
+                float x = exporter.normals[3 * v], y = exporter.normals[3 * v + 1], z = exporter.normals[3 * v + 2];
+                assertEquals(1, x * x + y * y + z * z, 1E-5, "normal of vertex " + v);
+            }
+    }
+
+    @Test
+    void glbHeader() throws IOException {
+        MeshExporter exporter = new MeshExporter(erode());
+        Path path = directory.resolve("mesh.glb");
+        exporter.writeGLB(path);
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+
+        assertEquals("glTF", new String(file.array(), 0, 4, StandardCharsets.US_ASCII));
+        assertEquals(2, file.getInt(4), "version");
+        assertEquals(file.limit(), file.getInt(8), "length");
+
+        int jsonLength = file.getInt(12);
+        assertEquals(0, jsonLength % 4, "JSON chunk alignment");
+        assertEquals("JSON", new String(file.array(), 16, 4, StandardCharsets.US_ASCII));
+        String json = new String(file.array(), 20, jsonLength, StandardCharsets.UTF_8).strip();
+        assertTrue(json.startsWith("{") && json.endsWith("}"), json);
+
+        int bin = 20 + jsonLength;
+        int binLength = file.getInt(bin);
+        assertEquals("BIN\0", new String(file.array(), bin + 4, 4, StandardCharsets.US_ASCII));
+        assertEquals(file.limit(), bin + 8 + binLength, "BIN chunk length");
+        assertEquals(28L * exporter.vertexCount() + 4L * exporter.indices.length, binLength);
+        assertTrue(json.contains("\"byteLength\":" + binLength), "buffer length in the JSON chunk");
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.keyboardcat1.erosio.export;
+
+import com.github.keyboardcat1.erosio.Eroder;
+import com.github.keyboardcat1.erosio.EroderEdge;
+import com.github.keyboardcat1.erosio.EroderGeometry;
+import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.EroderSettings;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryJittered;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryToroidal;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryToroidalGrid;
+import org.junit.jupiter.api.Test;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RiverRasterizerTest {
+    private static final RectD BOUNDS = new RectD(-16, -16, 16, 16);
+    private static final int SIZE = 256;
+
+    private static EroderResults erode(EroderGeometry geometry) {
+        EroderSettings settings = new EroderSettings((p, t) -> 1.0, p -> 0.0, p -> 2.0, 0.5, (p, h) -> 30.0,
+                1, 10, 1E-2);
+        return Eroder.erode(settings, geometry);
+    }
+
+    private static EroderResults erode() {
+        return erode(new EroderGeometryJittered(EroderGeometry.RectDtoPolygon(BOUNDS), 2, 3));
+    }
+
+    private static int pixel(double x, double y) {
+        int column = (int) Math.floor((x - BOUNDS.min.x) / BOUNDS.width() * SIZE);
+        int row = (int) Math.floor((y - BOUNDS.min.y) / BOUNDS.height() * SIZE);
+        return Math.min(SIZE - 1, row) * SIZE + Math.min(SIZE - 1, column);
+    }
+
+    // every pixel along the edges drawn, at their wrapped position on a periodic domain
+    private static void assertCovered(EroderResults results, RiverRasterizer rasterizer, float[] channel) {
+        EroderGeometryToroidal torus = results.eroderGeometry instanceof EroderGeometryToroidal t ? t : null;
+        for (EroderEdge edge : results.eroderEdges) {
+            if (Math.max(edge.volumeOrigin(), edge.volumeDestination()) < rasterizer.drainageCutoff) continue;
+            PointD origin = edge.origin();
+            PointD destination = torus == null ? edge.destination() : torus.unwrap(origin, edge.destination());
+            for (double t = 0; t <= 1; t += 1.0 / 64) {
+                PointD point = new PointD(origin.x + t * (destination.x - origin.x),
+                        origin.y + t * (destination.y - origin.y));
+                if (torus != null) point = torus.wrap(point);
+                assertTrue(channel[pixel(point.x, point.y)] > 0, "gap in " + edge + " at " + point);
+            }
+        }
+    }
+
+    @Test
+    void edgesAreCovered() {
+        EroderResults results = erode();
+        RiverRasterizer rasterizer = new RiverRasterizer(results, 0, 0.05, 0.5);
+        float[] channel = new float[SIZE * SIZE];
+        rasterizer.rasterize(BOUNDS, SIZE, SIZE, channel, null);
+        assertCovered(results, rasterizer, channel);
+        for (float coverage : channel)
+            assertTrue(coverage >= 0 && coverage <= 1, "coverage " + coverage);
+    }
+
+    @Test
+    void seamEdgesAreCovered() {
+        EroderResults results = erode(new EroderGeometryToroidalGrid(BOUNDS, 2));
+        RiverRasterizer rasterizer = new RiverRasterizer(results, 0, 0.05, 0.5);
+        long wrapping = results.eroderEdges.stream()
+                .filter(edge -> results.eroderGeometry.wraps(edge.origin(), edge.destination())).count();
+        assertTrue(wrapping > 0, "no edge wraps around the domain");
+        assertEquals(results.eroderEdges.size() + wrapping, rasterizer.segmentCount());
+        float[] channel = new float[SIZE * SIZE];
+        rasterizer.rasterize(BOUNDS, SIZE, SIZE, channel, null);
+        assertCovered(results, rasterizer, channel);
+    }
+
+    @Test
+    void widthsFollowTheVolume() {
+        EroderResults results = erode();
+        float[] channel = new float[SIZE * SIZE];
+        float[] widths = new float[SIZE * SIZE];
+        // a constant width without the volume
+        new RiverRasterizer(results, 0, 0.3, 0).rasterize(BOUNDS, SIZE, SIZE, channel, widths);
+        for (int i = 0; i < widths.length; i++)
+            assertEquals(channel[i] > 0 ? 0.3 : 0, widths[i], 1E-6, "at pixel " + i);
+
+        double maxVolume = results.eroderEdges.stream()
+                .mapToDouble(edge -> Math.max(edge.volumeOrigin(), edge.volumeDestination())).max().orElseThrow();
+        new RiverRasterizer(results, 0, 0.05, 0.5).rasterize(BOUNDS, SIZE, SIZE, channel, widths);
+        float maxWidth = 0;
+        for (float width : widths)
+            maxWidth = Math.max(maxWidth, width);
+        assertTrue(maxWidth <= 0.05 * Math.sqrt(maxVolume) + 1E-6, "width " + maxWidth);
+        assertTrue(maxWidth >= 0.9 * 0.05 * Math.sqrt(maxVolume), "width " + maxWidth);
+        for (EroderEdge edge : results.eroderEdges) {
+            float width = widths[pixel(edge.origin().x, edge.origin().y)];
+            assertTrue(width >= 0.9 * 0.05 * Math.sqrt(edge.volumeOrigin()), "width " + width + " at " + edge);
+        }
+    }
+
+    @Test
+    void cutoffDropsEdges() {
+        EroderResults results = erode();
+        double maxVolume = results.eroderEdges.stream()
+                .mapToDouble(edge -> Math.max(edge.volumeOrigin(), edge.volumeDestination())).max().orElseThrow();
+        double cutoff = maxVolume / 4;
+        RiverRasterizer rasterizer = new RiverRasterizer(results, cutoff, 0.05, 0.5);
+        assertEquals(results.eroderEdges.stream()
+                .filter(edge -> Math.max(edge.volumeOrigin(), edge.volumeDestination()) >= cutoff).count(),
+                rasterizer.segmentCount());
+        float[] channel = new float[SIZE * SIZE];
+        rasterizer.rasterize(BOUNDS, SIZE, SIZE, channel, null);
+        assertCovered(results, rasterizer, channel);
+
+        RiverRasterizer empty = new RiverRasterizer(results, 2 * maxVolume, 0.05, 0.5);
+        assertEquals(0, empty.segmentCount());
+        float[] widths = new float[SIZE * SIZE];
+        empty.rasterize(BOUNDS, SIZE, SIZE, channel, widths);
+        for (int i = 0; i < channel.length; i++) {
+            assertEquals(0, channel[i], 0, "at pixel " + i);
+            assertEquals(0, widths[i], 0, "at pixel " + i);
+        }
+    }
+}
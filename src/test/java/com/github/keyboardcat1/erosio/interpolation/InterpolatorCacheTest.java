@@ -0,0 +1,123 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import org.junit.jupiter.api.Test;
+import org.kynosarges.tektosyne.geometry.PointD;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InterpolatorCacheTest {
+    // a plane over x >= 0, NaN but covered over the strip 0 <= y < 1, counting its evaluations
+    private static final class Plane extends Interpolator {
+        private final AtomicInteger evaluations = new AtomicInteger();
+
+        @Override
+        public double interpolate(PointD point) {
+            evaluations.incrementAndGet();
+            if (!covers(point.x, point.y))
+                throw new IndexOutOfBoundsException(point + " does not lie within the convex hull");
+            return point.y >= 0 && point.y < 1 ? Double.NaN : 2 * point.x + 3 * point.y;
+        }
+
+        @Override
+        public double interpolate(double x, double y, double fillValue) {
+            return covers(x, y) ? interpolate(x, y) : fillValue;
+        }
+
+        @Override
+        public boolean covers(double x, double y) {
+            return x >= 0;
+        }
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        Plane plane = new Plane();
+        InterpolatorCache cache = new InterpolatorCache(plane, 0.5, 1024);
+        assertEquals(2 * 2 + 3 * 3, cache.interpolate(2, 3), 0);
+        assertEquals(1, cache.misses());
+        assertEquals(0, cache.hits());
+        // snapped to the same lattice point
+        assertEquals(2 * 2 + 3 * 3, cache.interpolate(2.1, 2.9), 0);
+        assertTrue(cache.covers(2, 3));
+        assertEquals(1, cache.misses());
+        assertEquals(2, cache.hits());
+        assertEquals(1, plane.evaluations.get());
+
+        cache.clear();
+        assertEquals(0, cache.misses());
+        assertEquals(0, cache.hits());
+        assertEquals(2 * 2 + 3 * 3, cache.interpolate(2, 3), 0);
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void uncoveredPointsAreMemoized() {
+        Plane plane = new Plane();
+        InterpolatorCache cache = new InterpolatorCache(plane, 0.5, 1024);
+        for (int i = 0; i < 3; i++) {
+            assertThrows(IndexOutOfBoundsException.class, () -> cache.interpolate(-2, 3));
+            assertEquals(-1, cache.interpolate(-2, 3, -1), 0);
+            assertFalse(cache.covers(-2, 3));
+        }
+        // covered points interpolating to NaN are not taken for uncovered ones
+        for (int i = 0; i < 3; i++) {
+            assertTrue(Double.isNaN(cache.interpolate(2, 0.5)));
+            assertTrue(Double.isNaN(cache.interpolate(2, 0.5, -1)));
+            assertTrue(cache.covers(2, 0.5));
+        }
+        assertEquals(2, cache.misses());
+        assertEquals(16, cache.hits());
+        assertEquals(1, plane.evaluations.get());
+    }
+
+    @Test
+    void evictsWithinCapacity() {
+        Plane plane = new Plane();
+        InterpolatorCache cache = new InterpolatorCache(plane, 1, 16);
+        assertEquals(16, cache.capacity);
+        for (int x = 0; x < 1000; x++)
+            assertEquals(2 * x + 3 * 5, cache.interpolate(x, 5), 0);
+        assertEquals(1000, cache.misses());
+        // at most capacity points are still memoized, and evicted points are evaluated again to the same heights
+        int hitsBefore = (int) cache.hits();
+        for (int x = 0; x < 1000; x++)
+            assertEquals(2 * x + 3 * 5, cache.interpolate(x, 5), 0);
+        assertTrue(cache.hits() - hitsBefore <= cache.capacity, "hits " + (cache.hits() - hitsBefore));
+        assertEquals(2000, cache.hits() + cache.misses());
+        assertEquals(cache.misses(), plane.evaluations.get());
+    }
+
+    @Test
+    void concurrentQueriesAgree() throws Exception {
+        Plane plane = new Plane();
+        InterpolatorCache cache = new InterpolatorCache(plane, 0.25, 256);
+        int threads = 8, queries = 20000;
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int seed = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < queries; i++) {
+                        // a working set larger than the capacity, so that threads evict each other's entries
+                        double x = ((i * 31 + seed * 7) % 600) * 0.25, y = 2 + ((i * 17) % 5) * 0.25;
+                        assertEquals(2 * x + 3 * y, cache.interpolate(x, y), 0);
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        }
+        assertEquals((long) threads * queries, cache.hits() + cache.misses());
+        assertEquals(cache.misses(), plane.evaluations.get());
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import com.github.keyboardcat1.erosio.Eroder;
+import com.github.keyboardcat1.erosio.EroderGeometry;
+import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.EroderSettings;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryJittered;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryToroidalGrid;
+import org.junit.jupiter.api.Test;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class InterpolatorNNTest {
+    private static EroderResults erode() {
+        EroderSettings settings = new EroderSettings((p, t) -> 1.0, p -> 0.0, p -> 2.0, 0.5, (p, h) -> 30.0,
+                1, 10, 1E-2);
+        return Eroder.erode(settings, new EroderGeometryJittered(EroderGeometry.RectDtoPolygon(
+                new RectD(-32, -32, 32, 32)), 2, 3));
+    }
+
+    @Test
+    void jumpFloodMatchesNearestNode() {
+        EroderResults results = erode();
+        NodeIndex nodeIndex = new NodeIndex(results);
+        Random random = new Random(1);
+        // coarse and fine rasters, so that pixels hold zero or several nodes
+        for (double pixelSize : new double[]{0.37, 1, 5.3}) {
+            InterpolatorNN interpolator = new InterpolatorNN(results, pixelSize);
+            for (int i = 0; i < 5000; i++) {
+                // a margin outside the raster too, where queries fall back to the index
+                double x = -36 + 72 * random.nextDouble(), y = -36 + 72 * random.nextDouble();
+                assertEquals(nodeIndex.heights[nodeIndex.nearest(x, y)], interpolator.interpolate(x, y),
+                        "at (" + x + ", " + y + ") with pixels of " + pixelSize);
+            }
+        }
+    }
+
+    @Test
+    void toroidalMatchesNearestNodeAcrossTheSeams() {
+        EroderSettings settings = new EroderSettings((p, t) -> 1.0, p -> 0.0, p -> 2.0, 0.5, (p, h) -> 30.0,
+                1, 10, 1E-2);
+        EroderGeometryToroidalGrid geometry = new EroderGeometryToroidalGrid(new RectD(-32, -32, 32, 32), 2.9);
+        EroderResults results = Eroder.erode(settings, geometry);
+        Random random = new Random(1);
+        // the mesh misses the edges of the outermost periodic images, where the walk alone may stop short
+        for (double pixelSize : new double[]{0.37, 5.3}) {
+            InterpolatorNN interpolator = new InterpolatorNN(results, pixelSize);
+            for (int i = 0; i < 3000; i++) {
+                double x = -100 + 200 * random.nextDouble(), y = -100 + 200 * random.nextDouble();
+                PointD point = new PointD(x, y);
+                double bestDistance = Double.POSITIVE_INFINITY, bestHeight = Double.NaN;
+                for (Map.Entry<PointD, Double> entry : results.heightMap.entrySet()) {
+                    double distance = geometry.distance(geometry.wrap(point), entry.getKey());
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        bestHeight = entry.getValue();
+                    }
+                }
+                assertEquals(bestHeight, interpolator.interpolate(x, y),
+                        "at (" + x + ", " + y + ") with pixels of " + pixelSize);
+            }
+        }
+    }
+}
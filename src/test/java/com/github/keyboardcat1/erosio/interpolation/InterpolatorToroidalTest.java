@@ -0,0 +1,70 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import com.github.keyboardcat1.erosio.Eroder;
+import com.github.keyboardcat1.erosio.EroderGeometry;
+import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.EroderSettings;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryToroidalGrid;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryToroidalNatural;
+import org.junit.jupiter.api.Test;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class InterpolatorToroidalTest {
+    private static final RectD PERIOD = new RectD(-32, -32, 32, 32);
+
+    private static EroderResults erode(EroderGeometry geometry) {
+        EroderSettings settings = new EroderSettings((p, t) -> 1.0, p -> 0.0, p -> 2.0, 0.5, (p, h) -> 30.0,
+                1, 10, 1E-2);
+        return Eroder.erode(settings, geometry);
+    }
+
+    private static List<Interpolator> interpolators(EroderResults results) {
+        return List.of(new InterpolatorLinear(results), new InterpolatorCPURasterizer(results, 0.7, 0.5),
+                new InterpolatorCPURasterizerRandomAccess(results, 0.5), new InterpolatorIDW(results, 2, 6),
+                new InterpolatorIDW(results, 2, Double.POSITIVE_INFINITY, 6),
+                new InterpolatorGaussianKernel(results, 1, 1E-3), new InterpolatorNN(results),
+                new InterpolatorNN(results, 0.7));
+    }
+
+    @Test
+    void heightsRepeatAcrossTheSeams() {
+        for (EroderGeometry geometry : List.of(new EroderGeometryToroidalGrid(PERIOD, 2),
+                new EroderGeometryToroidalNatural(PERIOD, 2, 3))) {
+            EroderResults results = erode(geometry);
+            Random random = new Random(1);
+            for (Interpolator interpolator : interpolators(results)) {
+                String name = interpolator.getClass().getSimpleName() + " on " + geometry.getClass().getSimpleName();
+                for (int i = 0; i < 2000; i++) {
+                    // half the points within a node of the seams, where the period's triangles used to stop
+                    double x = i % 2 == 0 ? 32 - 2 * random.nextDouble() : -32 + 64 * random.nextDouble();
+                    double y = i % 4 < 2 ? -32 + 2 * random.nextDouble() : -32 + 64 * random.nextDouble();
+                    double height = interpolator.interpolate(x, y);
+                    assertFalse(Double.isNaN(height), name + " at (" + x + ", " + y + ")");
+                    assertEquals(height, interpolator.interpolate(x - 64, y), 1E-9, name + " at (" + x + ", " + y + ")");
+                    assertEquals(height, interpolator.interpolate(x, y + 64), 1E-9, name + " at (" + x + ", " + y + ")");
+                }
+            }
+        }
+    }
+
+    @Test
+    void sampleGridCoversThePeriod() {
+        EroderResults results = erode(new EroderGeometryToroidalGrid(PERIOD, 2));
+        for (Interpolator interpolator : interpolators(results)) {
+            double[] heights = new double[97 * 89];
+            double[] shifted = new double[97 * 89];
+            interpolator.sampleGrid(PERIOD, 97, 89, heights);
+            interpolator.sampleGrid(new RectD(32, -96, 96, -32), 97, 89, shifted);
+            for (int i = 0; i < heights.length; i++) {
+                assertFalse(Double.isNaN(heights[i]), interpolator.getClass().getSimpleName() + " at sample " + i);
+                assertEquals(heights[i], shifted[i], 1E-9, interpolator.getClass().getSimpleName() + " at sample " + i);
+            }
+        }
+    }
+}